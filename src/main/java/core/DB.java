@@ -1,11 +1,17 @@
 package core;
 
 import util.CompactionService;
+import util.DBOptions;
 import memtable.MemtableService;
+import memtable.WriteBatch;
 import sstable.SSTableService;
 import util.Manifest;
+import util.WriteOptions;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
 public class DB implements AutoCloseable {
     public final MemtableService memtableService;
@@ -14,10 +20,14 @@ public class DB implements AutoCloseable {
     public final CompactionService compactionService;
 
     public DB() throws IOException {
-        manifest = new Manifest();
-        this.memtableService = new MemtableService(manifest);
-        this.sstableService = new SSTableService(manifest);
-        this.compactionService = new CompactionService(memtableService, manifest);
+        this(new DBOptions());
+    }
+
+    public DB(DBOptions options) throws IOException {
+        manifest = new Manifest(options);
+        this.memtableService = new MemtableService(manifest, options);
+        this.sstableService = new SSTableService(manifest, options);
+        this.compactionService = new CompactionService(memtableService, manifest, options);
     }
 
     public String get(String key){
@@ -26,14 +36,64 @@ public class DB implements AutoCloseable {
         return sstableService.get(key);
     }
 
+    // Returns the value of each key in the order given, null where get would return null. The keys are looked
+    // up sorted and without duplicates, so each memtable is probed once and every SSTable block holding any
+    // of them is read once.
+    public List<String> multiGet(List<String> keys) {
+        String[] input = keys.toArray(new String[0]);
+        Integer[] order = new Integer[input.length];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> input[a].compareTo(input[b]));
+        // lookups holds the distinct keys in order; the key at order[j] is lookups[slot[j]]
+        List<String> lookups = new ArrayList<>(input.length);
+        int[] slot = new int[input.length];
+        for (int j = 0; j < order.length; j++) {
+            String key = input[order[j]];
+            if (lookups.isEmpty() || !key.equals(lookups.get(lookups.size() - 1))) {
+                lookups.add(key);
+            }
+            slot[j] = lookups.size() - 1;
+        }
+        String[] found = new String[lookups.size()];
+        memtableService.multiGet(lookups, found);
+        sstableService.multiGet(lookups, found);
+
+        String[] values = new String[input.length];
+        for (int j = 0; j < order.length; j++) {
+            values[order[j]] = found[slot[j]];
+        }
+        return Arrays.asList(values);
+    }
+
     public void put(String key, String value) throws IOException {
         memtableService.put(key, value);
     }
 
+    // Overrides the DB-wide durability for this write only.
+    public void put(String key, String value, WriteOptions writeOptions) throws IOException {
+        memtableService.put(key, value, writeOptions);
+    }
+
     public void delete(String key){
         memtableService.delete(key);
     }
 
+    public void delete(String key, WriteOptions writeOptions){
+        memtableService.delete(key, writeOptions);
+    }
+
+    // Logs the batch as one WAL record, so a crash recovers all of it or none of it, and applies it without
+    // interleaving with other writers. Concurrent gets may see part of the batch while it is being applied.
+    public void write(WriteBatch batch) throws IOException {
+        memtableService.write(batch, null);
+    }
+
+    public void write(WriteBatch batch, WriteOptions writeOptions) throws IOException {
+        memtableService.write(batch, writeOptions);
+    }
+
     public void display(){
         manifest.displayManifestFile();
     }
@@ -44,5 +104,7 @@ public class DB implements AutoCloseable {
     public void close() throws Exception {
         compactionService.stop();
         memtableService.close();
+        sstableService.close();
+        manifest.close();
     }
 }
\ No newline at end of file
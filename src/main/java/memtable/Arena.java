@@ -0,0 +1,65 @@
+package memtable;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+// Bump allocator over off-heap chunks. Addresses pack the chunk index in the upper 32 bits and the
+// offset in the lower 32 bits; 0 is never handed out so it can serve as a null pointer.
+// Allocation is not thread-safe; callers serialize writers. Readers may resolve addresses concurrently.
+class Arena {
+    static final int CHUNK_SIZE = 1024 * 1024;
+    private static final int ALIGNMENT = 8;
+
+    private volatile ByteBuffer[] chunks = new ByteBuffer[0];
+    private ByteBuffer current;
+    private int currentIndex = -1;
+    private int currentOffset;
+    private volatile long memoryUsage;
+
+    Arena() {
+        newChunk(CHUNK_SIZE);
+        currentOffset = ALIGNMENT; // reserve address 0
+    }
+
+    long allocate(int size) {
+        int aligned = (size + ALIGNMENT - 1) & -ALIGNMENT;
+        if (aligned > CHUNK_SIZE / 4) {
+            // Oversized entries get a dedicated chunk so they don't waste the tail of the current one
+            int index = addChunk(ByteBuffer.allocateDirect(aligned).order(ByteOrder.nativeOrder()));
+            return (long) index << 32;
+        }
+        if (currentOffset + aligned > current.capacity()) {
+            newChunk(CHUNK_SIZE);
+        }
+        long address = ((long) currentIndex << 32) | currentOffset;
+        currentOffset += aligned;
+        return address;
+    }
+
+    ByteBuffer chunk(long address) {
+        return chunks[(int) (address >>> 32)];
+    }
+
+    static int offset(long address) {
+        return (int) address;
+    }
+
+    long memoryUsage() {
+        return memoryUsage;
+    }
+
+    private void newChunk(int size) {
+        current = ByteBuffer.allocateDirect(size).order(ByteOrder.nativeOrder());
+        currentIndex = addChunk(current);
+        currentOffset = 0;
+    }
+
+    private int addChunk(ByteBuffer chunk) {
+        ByteBuffer[] grown = Arrays.copyOf(chunks, chunks.length + 1);
+        grown[grown.length - 1] = chunk;
+        chunks = grown; // volatile publish before any address into the chunk is released to readers
+        memoryUsage += chunk.capacity();
+        return grown.length - 1;
+    }
+}
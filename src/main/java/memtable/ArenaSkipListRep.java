@@ -0,0 +1,217 @@
+package memtable;
+
+import util.Utf8;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractMap;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.SortedMap;
+import java.util.concurrent.ThreadLocalRandom;
+
+// Skip list whose nodes, keys and values all live in off-heap arena chunks, so a memtable costs a
+// handful of heap objects regardless of how many entries it holds.
+// Writers are serialized on this object; readers are lock-free and rely on release/acquire
+// publication of the next and value pointers.
+//
+// Node layout: [value address: 8][height: 4][key length: 4][next: 8 * height][key bytes]
+// Value layout: [value length: 4][value bytes]
+class ArenaSkipListRep implements MemtableRep {
+    private static final int MAX_HEIGHT = 12;
+    private static final int VALUE = 0;
+    private static final int HEIGHT = 8;
+    private static final int KEY_LENGTH = 12;
+    private static final int NEXT = 16;
+    private static final VarHandle LONG = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.nativeOrder());
+
+    private final Arena arena = new Arena();
+    private final long head;
+    private volatile int maxHeight = 1;
+
+    ArenaSkipListRep() {
+        head = newNode(new byte[0], MAX_HEIGHT);
+    }
+
+    @Override
+    public String get(String key) {
+        byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        long node = findGreaterOrEqual(keyBytes, null);
+        if (node != 0 && compareKey(keyBytes, node) == 0) {
+            return readValue(valueAddress(node));
+        }
+        return null;
+    }
+
+    @Override
+    public synchronized int put(String key, String value) {
+        byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        long valueAddress = newValue(value.getBytes(StandardCharsets.UTF_8));
+
+        long[] prev = new long[MAX_HEIGHT];
+        long node = findGreaterOrEqual(keyBytes, prev);
+        if (node != 0 && compareKey(keyBytes, node) == 0) {
+            // Overwrites leave the old value in the arena; it is reclaimed when the memtable is dropped
+            int oldLength = valueLength(valueAddress(node));
+            LONG.setRelease(arena.chunk(node), Arena.offset(node) + VALUE, valueAddress);
+            return oldLength;
+        }
+
+        int height = randomHeight();
+        if (height > maxHeight) {
+            for (int i = maxHeight; i < height; i++) {
+                prev[i] = head;
+            }
+            maxHeight = height;
+        }
+        link(newNode(keyBytes, height), valueAddress, prev);
+        return -1;
+    }
+
+    // Appends in order while tracking the tail of every level, so each insert is O(1) instead of a search.
+    @Override
+    public synchronized void putAllSorted(SortedMap<String, String> entries) {
+        long[] tails = new long[MAX_HEIGHT];
+        Arrays.fill(tails, head);
+        for (Map.Entry<String, String> entry : entries.entrySet()) {
+            int height = randomHeight();
+            if (height > maxHeight) {
+                maxHeight = height;
+            }
+            long node = newNode(entry.getKey().getBytes(StandardCharsets.UTF_8), height);
+            link(node, newValue(entry.getValue().getBytes(StandardCharsets.UTF_8)), tails);
+            for (int i = 0; i < height; i++) {
+                tails[i] = node;
+            }
+        }
+    }
+
+    @Override
+    public long memoryUsage() {
+        return arena.memoryUsage();
+    }
+
+    @Override
+    public Iterator<Map.Entry<String, String>> iterator() {
+        return new Iterator<>() {
+            private long node = ArenaSkipListRep.this.next(head, 0);
+
+            @Override
+            public boolean hasNext() {
+                return node != 0;
+            }
+
+            @Override
+            public Map.Entry<String, String> next() {
+                if (node == 0) {
+                    throw new NoSuchElementException();
+                }
+                Map.Entry<String, String> entry = new AbstractMap.SimpleImmutableEntry<>(readKey(node), readValue(valueAddress(node)));
+                node = ArenaSkipListRep.this.next(node, 0);
+                return entry;
+            }
+        };
+    }
+
+    // Returns the first node whose key is >= keyBytes (0 if none), filling prev with its predecessors per level.
+    private long findGreaterOrEqual(byte[] keyBytes, long[] prev) {
+        long node = head;
+        for (int level = maxHeight - 1; level >= 0; level--) {
+            long next = next(node, level);
+            while (next != 0 && compareKey(keyBytes, next) > 0) {
+                node = next;
+                next = next(node, level);
+            }
+            if (prev != null) {
+                prev[level] = node;
+            }
+            if (level == 0) {
+                return next;
+            }
+        }
+        return 0;
+    }
+
+    private void link(long node, long valueAddress, long[] prev) {
+        ByteBuffer chunk = arena.chunk(node);
+        int offset = Arena.offset(node);
+        int height = chunk.getInt(offset + HEIGHT);
+        chunk.putLong(offset + VALUE, valueAddress);
+        for (int i = 0; i < height; i++) {
+            chunk.putLong(offset + NEXT + 8 * i, next(prev[i], i));
+        }
+        // Publish bottom-up so a reader that sees the node at any level also sees its lower links
+        for (int i = 0; i < height; i++) {
+            LONG.setRelease(arena.chunk(prev[i]), Arena.offset(prev[i]) + NEXT + 8 * i, node);
+        }
+    }
+
+    private long newNode(byte[] keyBytes, int height) {
+        long node = arena.allocate(NEXT + 8 * height + keyBytes.length);
+        ByteBuffer chunk = arena.chunk(node);
+        int offset = Arena.offset(node);
+        chunk.putInt(offset + HEIGHT, height);
+        chunk.putInt(offset + KEY_LENGTH, keyBytes.length);
+        chunk.put(offset + NEXT + 8 * height, keyBytes);
+        return node;
+    }
+
+    private long newValue(byte[] valueBytes) {
+        long address = arena.allocate(4 + valueBytes.length);
+        ByteBuffer chunk = arena.chunk(address);
+        int offset = Arena.offset(address);
+        chunk.putInt(offset, valueBytes.length);
+        chunk.put(offset + 4, valueBytes);
+        return address;
+    }
+
+    private long next(long node, int level) {
+        return (long) LONG.getAcquire(arena.chunk(node), Arena.offset(node) + NEXT + 8 * level);
+    }
+
+    private long valueAddress(long node) {
+        return (long) LONG.getAcquire(arena.chunk(node), Arena.offset(node) + VALUE);
+    }
+
+    private int compareKey(byte[] keyBytes, long node) {
+        ByteBuffer chunk = arena.chunk(node);
+        int offset = Arena.offset(node);
+        int height = chunk.getInt(offset + HEIGHT);
+        int keyLength = chunk.getInt(offset + KEY_LENGTH);
+        return Utf8.compare(keyBytes, 0, keyBytes.length, chunk, offset + NEXT + 8 * height, keyLength);
+    }
+
+    private String readKey(long node) {
+        ByteBuffer chunk = arena.chunk(node);
+        int offset = Arena.offset(node);
+        int height = chunk.getInt(offset + HEIGHT);
+        byte[] keyBytes = new byte[chunk.getInt(offset + KEY_LENGTH)];
+        chunk.get(offset + NEXT + 8 * height, keyBytes);
+        return new String(keyBytes, StandardCharsets.UTF_8);
+    }
+
+    private int valueLength(long address) {
+        return arena.chunk(address).getInt(Arena.offset(address));
+    }
+
+    private String readValue(long address) {
+        ByteBuffer chunk = arena.chunk(address);
+        int offset = Arena.offset(address);
+        byte[] valueBytes = new byte[chunk.getInt(offset)];
+        chunk.get(offset + 4, valueBytes);
+        return new String(valueBytes, StandardCharsets.UTF_8);
+    }
+
+    private static int randomHeight() {
+        int height = 1;
+        while (height < MAX_HEIGHT && ThreadLocalRandom.current().nextInt(4) == 0) {
+            height++;
+        }
+        return height;
+    }
+}
@@ -1,38 +1,71 @@
 package memtable;
 
-import java.nio.charset.StandardCharsets;
+import util.Utf8;
+
 import java.util.Iterator;
 import java.util.Map;
-import java.util.NavigableMap;
-import java.util.TreeMap;
+import java.util.SortedMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class Memtable implements Iterable<Map.Entry<String, String>> {
-    private final NavigableMap<String, String> table = new TreeMap<>();
-    private long sizeBytes = 0L;
+    private final MemtableRep table;
+    private final AtomicLong sizeBytes = new AtomicLong();
+
+    // Backed by a lock-free skip list so that many writers can insert at once and readers never block.
+    public Memtable() {
+        this(new SkipListRep());
+    }
+
+    private Memtable(MemtableRep table) {
+        this.table = table;
+    }
+
+    // Keeps keys and values in off-heap arena chunks; writers are serialized, readers stay lock-free.
+    public static Memtable offHeap() {
+        return new Memtable(new ArenaSkipListRep());
+    }
 
     public String get(String key) {
         return table.get(key);
     }
 
     public void put(String key, String value) {
-        String old = table.put(key, value);
-        if (old != null) {
-            sizeBytes -= estimateSize(key, old);
+        int keyLen = Utf8.encodedLength(key);
+        int oldValueLen = table.put(key, value);
+        long delta = estimateSize(keyLen, Utf8.encodedLength(value));
+        if (oldValueLen >= 0) {
+            delta -= estimateSize(keyLen, oldValueLen);
         }
-        sizeBytes += estimateSize(key, value);
+        sizeBytes.addAndGet(delta);
     }
 
-    private long estimateSize(String key, String value) {
-        int keyLen = key.getBytes(StandardCharsets.UTF_8).length;
-        int valueLen = value.getBytes(StandardCharsets.UTF_8).length;
+    // Loads a sorted batch, e.g. a replayed WAL, into this memtable in one pass. The memtable must be empty.
+    public void putAllSorted(SortedMap<String, String> entries) {
+        if (sizeBytes.get() != 0) {
+            throw new IllegalStateException("Bulk load requires an empty memtable");
+        }
+        long size = 0;
+        for (Map.Entry<String, String> entry : entries.entrySet()) {
+            size += estimateSize(Utf8.encodedLength(entry.getKey()), Utf8.encodedLength(entry.getValue()));
+        }
+        table.putAllSorted(entries);
+        sizeBytes.addAndGet(size);
+    }
+
+    private long estimateSize(int keyLen, int valueLen) {
         return 4 + keyLen + 4 + valueLen;
     }
 
     public long size(){
-        return sizeBytes;
+        return sizeBytes.get();
+    }
+
+    // Memory actually reserved by the representation when it tracks it, otherwise the encoded size
+    public long memoryUsage() {
+        return Math.max(sizeBytes.get(), table.memoryUsage());
     }
 
     public Iterator<Map.Entry<String, String>> iterator() {
-        return table.entrySet().iterator();
+        return table.iterator();
     }
 }
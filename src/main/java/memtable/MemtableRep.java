@@ -0,0 +1,21 @@
+package memtable;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.SortedMap;
+
+// Sorted storage behind a Memtable. Implementations must allow concurrent readers while a put is in flight.
+interface MemtableRep extends Iterable<Map.Entry<String, String>> {
+    String get(String key);
+
+    // Returns the UTF-8 length of the replaced value, or -1 if the key was not present.
+    int put(String key, String value);
+
+    // Bulk path for an empty rep; entries are sorted and unique, so no per-entry search is needed.
+    void putAllSorted(SortedMap<String, String> entries);
+
+    // Bytes held by the representation itself, or 0 when it is not tracked.
+    long memoryUsage();
+
+    Iterator<Map.Entry<String, String>> iterator();
+}
@@ -1,106 +1,280 @@
 package memtable;
 
+import sstable.BlobStore;
 import sstable.SSTable;
+import util.DBOptions;
 import util.Manifest;
+import util.SyncMode;
 import util.WAL;
+import util.WriteOptions;
 
 import java.io.IOException;
 import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Queue;
+import java.util.TreeMap;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 public class MemtableService {
     private final Manifest manifest;
-    private Memtable activeMemtable;
-    private WAL activeWAL;
+    private final DBOptions options;
+    private volatile Memtable activeMemtable;
+    private volatile WAL activeWAL;
     private final Queue<Memtable> flushQueue = new ConcurrentLinkedQueue<>();
     private static final int MEMTABLE_SIZE_THRESHOLD = 4 * 1024 * 1024;
-    private static final String TOMBSTONE = "<TOMBSTONE>";
+    // Batches track the stripes they hold as bits of a long, so this must not exceed 64
+    private static final int KEY_LOCK_STRIPES = 64;
     private boolean disableFlush = false;
+    // Writers share the read lock so they can insert concurrently; only memtable rotation takes the write lock.
     public final ReadWriteLock rwLock = new ReentrantReadWriteLock();
+    // Keeps the WAL order and the memtable order of writes to the same key consistent.
+    private final Lock[] keyLocks = new Lock[KEY_LOCK_STRIPES];
+    // Started with the DB in PERIODIC mode, or by the first write that asks for PERIODIC
+    private volatile ScheduledExecutorService walSyncer;
 
     public MemtableService(Manifest manifest) throws IOException {
+        this(manifest, new DBOptions());
+    }
+
+    public MemtableService(Manifest manifest, DBOptions options) throws IOException {
         this.manifest = manifest;
+        this.options = options;
+        for (int i = 0; i < keyLocks.length; i++) {
+            keyLocks[i] = new ReentrantLock();
+        }
         if (!manifest.walPaths.isEmpty()) {
             List<String> walPaths = manifest.walPaths;
+            List<Memtable> recovered = recover(walPaths);
             int lastIndex = walPaths.size() - 1;
-            activeMemtable = new Memtable();
-            activeWAL = new WAL(walPaths.get(lastIndex));
-            WAL.replay(activeMemtable, walPaths.get(lastIndex));
-            for (int i = 0; i < lastIndex; i++) {
-                Memtable queuedMemtable = new Memtable();
-                WAL.replay(queuedMemtable, walPaths.get(i));
-                flushQueue.add(queuedMemtable);
+            if (WAL.isUnframed(walPaths.get(lastIndex))) {
+                // Written before WAL files had a header, so new writes go to a new WAL and the recovered memtable
+                // is flushed like a full one
+                flushQueue.addAll(recovered);
+                activeMemtable = newMemtable();
+                activeWAL = new WAL(generateWALFilePath(), options);
+                manifest.addWAL(activeWAL.getFilePath());
+            } else {
+                activeMemtable = recovered.get(lastIndex);
+                activeWAL = new WAL(walPaths.get(lastIndex), options);
+                flushQueue.addAll(recovered.subList(0, lastIndex));
             }
         } else {
-            activeMemtable = new Memtable();
-            activeWAL = new WAL(generateWALFilePath());
+            activeMemtable = newMemtable();
+            activeWAL = new WAL(generateWALFilePath(), options);
             manifest.addWAL(activeWAL.getFilePath());
         }
+        if (options.getSyncMode() == SyncMode.PERIODIC) {
+            startWALSyncer();
+        }
+    }
+
+    // WAL files are independent, so each is replayed on its own thread into a fresh memtable. The returned
+    // memtables are in the same order as walPaths.
+    private List<Memtable> recover(List<String> walPaths) throws IOException {
+        long start = System.nanoTime();
+        int threads = Math.max(1, Math.min(walPaths.size(), options.getRecoveryThreads()));
+        ExecutorService recoveryPool = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<Memtable>> replays = new ArrayList<>();
+            for (int i = 0; i < walPaths.size(); i++) {
+                String walPath = walPaths.get(i);
+                // The active WAL is appended to again, so its torn tail has to go
+                boolean truncate = i == walPaths.size() - 1;
+                replays.add(recoveryPool.submit(() -> replayWAL(walPath, truncate)));
+            }
+
+            List<Memtable> memtables = new ArrayList<>();
+            for (Future<Memtable> replay : replays) {
+                memtables.add(replay.get());
+            }
+            System.out.println("Recovered " + walPaths.size() + " WAL files in "
+                    + (System.nanoTime() - start) / 1_000_000 + " ms");
+            return memtables;
+        } catch (ExecutionException e) {
+            throw new IOException("Failed to replay WAL", e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while replaying WAL", e);
+        } finally {
+            recoveryPool.shutdownNow();
+        }
+    }
+
+    // Replays into a TreeMap first so that the memtable can be built with a single sorted bulk insert.
+    private Memtable replayWAL(String walPath, boolean truncate) throws IOException {
+        long start = System.nanoTime();
+        TreeMap<String, String> replayed = new TreeMap<>();
+        WAL.ReplayResult result = WAL.replay(walPath, replayed::put);
+        if (truncate && !result.unframed) {
+            WAL.truncate(walPath, result.validLength);
+        }
+        Memtable memtable = newMemtable();
+        memtable.putAllSorted(replayed);
+        System.out.println("Replayed " + result.records + " records from " + walPath + " in "
+                + (System.nanoTime() - start) / 1_000_000 + " ms");
+        return memtable;
     }
 
+    // Bounds the unsynced window of the active WAL even when no further writes arrive to trigger an fsync.
+    // A failed fsync is logged rather than thrown, since a throwing task would silently stop being scheduled;
+    // the WAL then rejects the next write.
+    private synchronized void startWALSyncer() {
+        if (walSyncer != null) {
+            return;
+        }
+        walSyncer = Executors.newSingleThreadScheduledExecutor();
+        walSyncer.scheduleAtFixedRate(
+                () -> {
+                    try {
+                        activeWAL.syncIfDue();
+                    } catch (IOException e) {
+                        System.err.println("Failed to sync WAL: " + e.getMessage());
+                    }
+                },
+                options.getSyncIntervalMillis(),
+                options.getSyncIntervalMillis(),
+                TimeUnit.MILLISECONDS
+        );
+    }
+
+    // Lock-free: the active memtable is rotated into the flush queue before it is replaced, and flushed
+    // memtables leave the queue only once their SSTable is visible in the manifest.
     public String get(String key) {
+        String v = activeMemtable.get(key);
+        if (v != null) return v;
+
+        for (Memtable m : flushQueue) {
+            v = m.get(key);
+            if (v != null) return v;
+        }
+        return null;
+    }
+
+    // Fills in values[i] for each of the keys the memtables hold, reading the active memtable and each queued
+    // one only once for the whole batch. Sees the same memtables as get.
+    public void multiGet(List<String> keys, String[] values) {
+        List<Memtable> memtables = new ArrayList<>();
+        memtables.add(activeMemtable);
+        memtables.addAll(flushQueue);
+        for (Memtable m : memtables) {
+            for (int i = 0; i < keys.size(); i++) {
+                if (values[i] == null) {
+                    values[i] = m.get(keys.get(i));
+                }
+            }
+        }
+    }
+
+    public void put(String key, String value) throws IOException {
+        put(key, value, null);
+    }
+
+    public void put(String key, String value, WriteOptions writeOptions) throws IOException {
+        write(new WriteBatch().put(key, value), writeOptions);
+    }
+
+    public void delete(String key) {
+        delete(key, null);
+    }
+
+    public void delete(String key, WriteOptions writeOptions) {
+        try {
+            write(new WriteBatch().delete(key), writeOptions);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private SyncMode syncModeFor(WriteOptions writeOptions) {
+        if (writeOptions == null || writeOptions.getSyncMode() == null) {
+            return options.getSyncMode();
+        }
+        return writeOptions.getSyncMode();
+    }
+
+    // One WAL record and one acquisition of the shared lock for the whole batch. Every key stripe the
+    // batch touches is held throughout, taken in stripe order so concurrent batches cannot deadlock.
+    public void write(WriteBatch batch, WriteOptions writeOptions) throws IOException {
+        if (batch.count() == 0) {
+            return;
+        }
+        SyncMode syncMode = syncModeFor(writeOptions);
+        if (syncMode == SyncMode.PERIODIC && walSyncer == null) {
+            startWALSyncer();
+        }
+        long stripes = 0L;
+        for (String key : batch.keys()) {
+            stripes |= 1L << Math.floorMod(key.hashCode(), KEY_LOCK_STRIPES);
+        }
+
         Lock readLock = rwLock.readLock();
         readLock.lock();
+        lockStripes(stripes);
         try {
-            String v = activeMemtable.get(key);
-            if (v != null) return v;
-
-            for (Memtable m : flushQueue) {
-                v = m.get(key);
-                if (v != null) return v;
+            if (syncMode != SyncMode.NO_WAL) {
+                activeWAL.write(batch, syncMode);
             }
-            return null;
+            batch.applyTo(activeMemtable);
         } finally {
+            unlockStripes(stripes);
             readLock.unlock();
         }
+        if (!disableFlush && activeMemtable.memoryUsage() > MEMTABLE_SIZE_THRESHOLD) {
+            rotateIfFull();
+        }
     }
 
-    public void put(String key, String value) throws IOException {
+    private void lockStripes(long stripes) {
+        for (long remaining = stripes; remaining != 0; remaining &= remaining - 1) {
+            keyLocks[Long.numberOfTrailingZeros(remaining)].lock();
+        }
+    }
+
+    private void unlockStripes(long stripes) {
+        for (long remaining = stripes; remaining != 0; remaining &= remaining - 1) {
+            keyLocks[Long.numberOfTrailingZeros(remaining)].unlock();
+        }
+    }
+
+    private void rotateIfFull() throws IOException {
         rwLock.writeLock().lock();
-        manifest.getLock().writeLock().lock();
         try {
-            activeWAL.writeEntry(key, value);
-            activeMemtable.put(key, value);
-            if (!disableFlush && activeMemtable.size() > MEMTABLE_SIZE_THRESHOLD) {
+            // Another writer may have rotated while we were waiting for the lock
+            if (activeMemtable.memoryUsage() > MEMTABLE_SIZE_THRESHOLD) {
                 rotateMemtable();
             }
         } finally {
-            manifest.getLock().writeLock().unlock();
             rwLock.writeLock().unlock();
         }
     }
 
-    public void delete(String key) {
+    public void rotateMemtable() throws IOException {
         rwLock.writeLock().lock();
         manifest.getLock().writeLock().lock();
         try {
-            activeWAL.writeEntry(key, TOMBSTONE);
-            activeMemtable.put(key, TOMBSTONE);
-            if (!disableFlush && activeMemtable.size() > MEMTABLE_SIZE_THRESHOLD) {
-                rotateMemtable();
-            }
-        } catch (IOException e) {
-            throw new RuntimeException(e);
+            flushQueue.add(activeMemtable);
+            activeWAL.close();
+
+            activeMemtable = newMemtable();
+            activeWAL = new WAL(generateWALFilePath(), options);
+            manifest.addWAL(activeWAL.getFilePath());
         } finally {
             manifest.getLock().writeLock().unlock();
             rwLock.writeLock().unlock();
         }
     }
 
-    public void rotateMemtable() throws IOException {
-        flushQueue.add(activeMemtable);
-        activeWAL.close();
-
-        activeMemtable = new Memtable();
-        activeWAL = new WAL(generateWALFilePath());
-        manifest.addWAL(activeWAL.getFilePath());
-    }
-
     public boolean hasFlushableMemtable() {
         return !flushQueue.isEmpty();
     }
@@ -115,7 +289,7 @@ public class MemtableService {
         if (!manifest.walPaths.isEmpty()) {
             String walPathToRemove = manifest.walPaths.get(0); // Oldest WAL
             manifest.removeWAL(walPathToRemove);
-            new WAL(walPathToRemove).delete();
+            WAL.delete(walPathToRemove);
         }
     }
 
@@ -123,6 +297,10 @@ public class MemtableService {
         return rwLock;
     }
 
+    private Memtable newMemtable() {
+        return options.isOffHeapMemtable() ? Memtable.offHeap() : new Memtable();
+    }
+
     private String generateWALFilePath() {
         return "./data" + "/wal-" + System.nanoTime() + ".log";
     }
@@ -140,22 +318,26 @@ public class MemtableService {
                 rotateMemtable(); // Move active to flushQueue
             }
 
-            // Flush all memtables in the queue
+            // Flush all memtables in the queue. Each stays queued until its SSTable is in the manifest, since
+            // readers don't take rwLock.
             while (!flushQueue.isEmpty()) {
-                Memtable mem = flushQueue.poll();
-                SSTable sstable = SSTable.createSSTableFromMemtable(mem);
-
-                Lock manifestLock = manifest.getLock().writeLock();
-                manifestLock.lock();
-                try {
-                    manifest.addSSTable(0, sstable);
-                    if (!manifest.walPaths.isEmpty()) {
-                        String walToRemove = manifest.walPaths.remove(0);
-                        new WAL(walToRemove).delete();
-                        manifest.persist();
+                Memtable mem = flushQueue.peek();
+                try (BlobStore.Writer blobs = manifest.getBlobStore().newWriter()) {
+                    SSTable sstable = SSTable.createSSTableFromMemtable(mem, options, 0, blobs);
+
+                    Lock manifestLock = manifest.getLock().writeLock();
+                    manifestLock.lock();
+                    try {
+                        manifest.addSSTable(0, sstable, blobs);
+                        flushQueue.remove(mem);
+                        if (!manifest.walPaths.isEmpty()) {
+                            String walToRemove = manifest.walPaths.remove(0);
+                            WAL.delete(walToRemove);
+                            manifest.persist();
+                        }
+                    } finally {
+                        manifestLock.unlock();
                     }
-                } finally {
-                    manifestLock.unlock();
                 }
             }
         } finally {
@@ -164,6 +346,10 @@ public class MemtableService {
     }
 
     public void close() throws IOException {
+        ScheduledExecutorService syncer = walSyncer;
+        if (syncer != null) {
+            syncer.shutdown();
+        }
         activeWAL.close();
         flushAllRemaining();
     }
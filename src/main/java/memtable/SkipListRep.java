@@ -0,0 +1,41 @@
+package memtable;
+
+import util.Utf8;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+// On-heap lock-free skip list; many writers can insert at once and readers never block.
+class SkipListRep implements MemtableRep {
+    private volatile ConcurrentNavigableMap<String, String> table = new ConcurrentSkipListMap<>();
+
+    @Override
+    public String get(String key) {
+        return table.get(key);
+    }
+
+    @Override
+    public int put(String key, String value) {
+        String old = table.put(key, value);
+        return old == null ? -1 : Utf8.encodedLength(old);
+    }
+
+    @Override
+    public void putAllSorted(SortedMap<String, String> entries) {
+        // Builds the skip list in linear time from the already sorted map
+        table = new ConcurrentSkipListMap<>(entries);
+    }
+
+    @Override
+    public long memoryUsage() {
+        return 0L;
+    }
+
+    @Override
+    public Iterator<Map.Entry<String, String>> iterator() {
+        return table.entrySet().iterator();
+    }
+}
@@ -0,0 +1,56 @@
+package sstable;
+
+import java.nio.ByteBuffer;
+
+// Location of a value kept in a blob file. A data block stores it in place of the value as
+// [MARKER: 1][blob file number: 8][offset: 8][value length: 4]; MARKER never starts a UTF-8 encoded value.
+//
+// Decoded blocks return a reference as a String starting with PREFIX, an unpaired surrogate that no value
+// decoded from UTF-8 contains, so references pass through compaction like any other value without their
+// blob being read.
+final class BlobReference {
+    static final byte MARKER = (byte) 0xFF;
+    static final int ENCODED_SIZE = 1 + 8 + 8 + 4;
+    private static final char PREFIX = '\uDC00';
+
+    final long fileNumber;
+    final long offset;
+    final int length;
+
+    BlobReference(long fileNumber, long offset, int length) {
+        this.fileNumber = fileNumber;
+        this.offset = offset;
+        this.length = length;
+    }
+
+    // Only meaningful for values read from a table; a value passed in by a user may start with anything.
+    static boolean isReference(String value) {
+        return !value.isEmpty() && value.charAt(0) == PREFIX;
+    }
+
+    static boolean isEncoded(ByteBuffer data, int pos, int length) {
+        return length == ENCODED_SIZE && data.get(pos) == MARKER;
+    }
+
+    // Returns the String form of the reference encoded at pos.
+    static String decode(ByteBuffer data, int pos) {
+        return new BlobReference(data.getLong(pos + 1), data.getLong(pos + 9), data.getInt(pos + 17)).toString();
+    }
+
+    static BlobReference parse(String value) {
+        int first = value.indexOf(':');
+        int second = value.indexOf(':', first + 1);
+        return new BlobReference(Long.parseLong(value.substring(1, first)),
+                Long.parseLong(value.substring(first + 1, second)),
+                Integer.parseInt(value.substring(second + 1)));
+    }
+
+    byte[] encode() {
+        return ByteBuffer.allocate(ENCODED_SIZE).put(MARKER).putLong(fileNumber).putLong(offset).putInt(length).array();
+    }
+
+    @Override
+    public String toString() {
+        return PREFIX + Long.toString(fileNumber) + ':' + offset + ':' + length;
+    }
+}
@@ -0,0 +1,243 @@
+package sstable;
+
+import util.ChecksumVerification;
+import util.DBOptions;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.LongSupplier;
+import java.util.zip.CRC32C;
+
+// Append-only blob files holding values of at least DBOptions.blobValueThreshold bytes, which tables store as
+// BlobReferences instead (key-value separation as in WiscKey). Compaction then moves the small references
+// from level to level and writes each large value only once.
+//
+// Every flush and compaction writes through its own Writer, whose blob file and garbage become part of the
+// store when the manifest commits the tables that reference them. Garbage is the bytes of values that no
+// live table references anymore, counted as compaction drops overwritten and deleted entries. Once a file's
+// garbage reaches blobGarbageRatio of its size, compaction copies the values still live in it into its own
+// blob file, and the file is deleted once all of it is garbage.
+//
+// Record layout: [value][CRC32C of value: 4]. References point at the value.
+public class BlobStore {
+    private static final int WRITE_BUFFER_SIZE = 1024 * 1024;
+
+    private final String dataDir;
+    private final double garbageRatio;
+    private final ChecksumVerification checksumVerification;
+    // Hands out the number of each new blob file; the manifest persists it so numbers are never reused
+    private final LongSupplier fileNumbers;
+    // Shared with the tables, under the negated file number so that ids never collide with table ids
+    private final TableCache tableCache;
+    // File number -> {size, garbage bytes} of every committed blob file
+    private final Map<Long, long[]> files = new HashMap<>();
+
+    public BlobStore(String dataDir, DBOptions options, TableCache tableCache, LongSupplier fileNumbers) {
+        this.dataDir = dataDir;
+        this.garbageRatio = options.getBlobGarbageRatio();
+        this.checksumVerification = options.getChecksumVerification();
+        this.tableCache = tableCache;
+        this.fileNumbers = fileNumbers;
+    }
+
+    public Writer newWriter() {
+        return new Writer();
+    }
+
+    // For the manifest: file number -> {size, garbage bytes}
+    public synchronized Map<Long, long[]> snapshot() {
+        Map<Long, long[]> copy = new HashMap<>();
+        for (Map.Entry<Long, long[]> file : files.entrySet()) {
+            copy.put(file.getKey(), file.getValue().clone());
+        }
+        return copy;
+    }
+
+    public synchronized void restore(Map<Long, long[]> snapshot) {
+        files.clear();
+        files.putAll(snapshot);
+    }
+
+    // Deletes the files that are all garbage. Only safe once the manifest no longer lists tables that
+    // referenced them, since readers may still be in those tables until then.
+    public void deleteObsoleteFiles() {
+        for (long fileNumber : obsoleteFiles()) {
+            if (tableCache != null) {
+                tableCache.evict(-fileNumber);
+            }
+            try {
+                Files.deleteIfExists(Paths.get(path(fileNumber)));
+            } catch (IOException e) {
+                System.err.println("Failed to delete blob file " + path(fileNumber) + ": " + e.getMessage());
+            }
+        }
+    }
+
+    private synchronized long[] obsoleteFiles() {
+        long[] obsolete = files.entrySet().stream()
+                .filter(file -> file.getValue()[1] >= file.getValue()[0])
+                .mapToLong(Map.Entry::getKey)
+                .toArray();
+        for (long fileNumber : obsolete) {
+            files.remove(fileNumber);
+        }
+        return obsolete;
+    }
+
+    public synchronized long fileCount() {
+        return files.size();
+    }
+
+    public synchronized long garbageBytes() {
+        return files.values().stream().mapToLong(file -> file[1]).sum();
+    }
+
+    String read(String reference) throws IOException {
+        BlobReference blob = BlobReference.parse(reference);
+        return new String(readRecord(blob, false), 0, blob.length, StandardCharsets.UTF_8);
+    }
+
+    // Returns the record, the value followed by its checksum. compaction is set for reads by compaction.
+    private byte[] readRecord(BlobReference reference, boolean compaction) throws IOException {
+        String path = path(reference.fileNumber);
+        ByteBuffer record = ByteBuffer.allocate(reference.length + 4);
+        try (TableCache.Handle file = tableCache != null
+                ? tableCache.acquire(-reference.fileNumber, path) : TableCache.openUncached(path)) {
+            while (record.hasRemaining()) {
+                if (file.channel.read(record, reference.offset + record.position()) < 0) {
+                    throw new EOFException("Blob at " + reference.offset + " runs past the end of " + path);
+                }
+            }
+        }
+        if (shouldVerify(compaction)) {
+            CRC32C crc = new CRC32C();
+            crc.update(record.array(), 0, reference.length);
+            if ((int) crc.getValue() != record.getInt(reference.length)) {
+                throw new IOException("Checksum mismatch in blob at " + reference.offset + " of " + path);
+            }
+        }
+        return record.array();
+    }
+
+    // Blob reads bypass the block cache, so they are checked like SSTable blocks read without caching them:
+    // every read under ALWAYS, compaction's reads under COMPACTION_ONLY, and none under ON_CACHE_LOAD or NONE.
+    private boolean shouldVerify(boolean compaction) {
+        switch (checksumVerification) {
+            case ALWAYS:
+                return true;
+            case COMPACTION_ONLY:
+                return compaction;
+            default:
+                return false;
+        }
+    }
+
+    private synchronized boolean shouldCollect(long fileNumber) {
+        long[] file = files.get(fileNumber);
+        return file != null && file[1] >= garbageRatio * file[0];
+    }
+
+    private String path(long fileNumber) {
+        return dataDir + "/blob_" + fileNumber + ".blob";
+    }
+
+    // Blob output of one flush or compaction. Nothing it does is visible to the store until commit, and
+    // closing an uncommitted writer deletes its blob file, so a failed compaction leaves no trace.
+    public final class Writer implements Closeable {
+        // File number -> bytes of values this flush or compaction made garbage
+        private final Map<Long, Long> garbage = new HashMap<>();
+        private final CRC32C crc = new CRC32C();
+        private long fileNumber;
+        // Null until the first value is added
+        private FileOutputStream file;
+        private DataOutputStream out;
+        private long size;
+        private boolean committed;
+
+        private Writer() {
+        }
+
+        BlobReference add(byte[] value, int length) throws IOException {
+            if (file == null) {
+                fileNumber = fileNumbers.getAsLong();
+                file = new FileOutputStream(path(fileNumber));
+                out = new DataOutputStream(new BufferedOutputStream(file, WRITE_BUFFER_SIZE));
+            }
+            crc.reset();
+            crc.update(value, 0, length);
+            long offset = size;
+            out.write(value, 0, length);
+            out.writeInt((int) crc.getValue());
+            size += length + 4;
+            return new BlobReference(fileNumber, offset, length);
+        }
+
+        // Called for a reference that the output of this compaction no longer holds.
+        void drop(String reference) {
+            BlobReference dropped = BlobReference.parse(reference);
+            garbage.merge(dropped.fileNumber, dropped.length + 4L, Long::sum);
+        }
+
+        // Returns the reference to keep for a live value: the same one, or a reference to a copy of the value
+        // in this writer's file if its blob file is due for garbage collection.
+        String relocate(String reference) throws IOException {
+            BlobReference live = BlobReference.parse(reference);
+            if (!shouldCollect(live.fileNumber)) {
+                return reference;
+            }
+            byte[] record = readRecord(live, true);
+            drop(reference);
+            return add(record, live.length).toString();
+        }
+
+        // Makes the blob file durable. Must happen before a manifest that lists tables referencing it.
+        void finish() throws IOException {
+            if (file != null && file.getChannel().isOpen()) {
+                out.flush();
+                file.getChannel().force(true);
+                out.close();
+            }
+        }
+
+        // Adds the blob file and the garbage to the store, as the manifest commits the tables written
+        // with this writer.
+        public void commit() throws IOException {
+            finish();
+            synchronized (BlobStore.this) {
+                if (file != null) {
+                    files.put(fileNumber, new long[]{size, 0L});
+                }
+                for (Map.Entry<Long, Long> dropped : garbage.entrySet()) {
+                    long[] file = files.get(dropped.getKey());
+                    if (file != null) {
+                        file[1] += dropped.getValue();
+                    }
+                }
+            }
+            committed = true;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (committed || file == null) {
+                return;
+            }
+            committed = true;
+            try {
+                out.close();
+            } finally {
+                Files.deleteIfExists(Paths.get(path(fileNumber)));
+            }
+        }
+    }
+}
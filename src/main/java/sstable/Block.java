@@ -0,0 +1,181 @@
+package sstable;
+
+import util.Utf8;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractMap;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+// Reader for blocks written by BlockBuilder. Lookups binary search the restart array on raw key bytes and
+// then scan at most one restart interval, decoding only the value that matches.
+class Block implements DataBlock {
+    private final ByteBuffer data;
+    private final int restartsOffset;
+    private final int restartCount;
+
+    Block(ByteBuffer data) {
+        this.data = data;
+        this.restartCount = data.getInt(data.limit() - 4);
+        this.restartsOffset = data.limit() - 4 - 4 * restartCount;
+    }
+
+    @Override
+    public String get(byte[] target, int targetLength) {
+        // Find the last restart point whose key is < target; the match, if any, lies in its interval
+        int low = 0;
+        int high = restartCount - 1;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            // shared is always 0 at a restart point, so the key suffix is the whole key
+            long unshared = readVarint(skipVarint(restartPoint(mid)));
+            int keyStart = skipVarint((int) unshared);
+            if (Utf8.compare(target, 0, targetLength, data, keyStart, (int) (unshared >>> 32)) > 0) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+
+        // Keys are compared in place without rebuilding them. Every key passed so far is < target, and
+        // matched is the length of the common prefix of target and the previous key. A key sharing fewer
+        // bytes than that with its predecessor is already greater than target; one sharing more is still
+        // smaller; only one sharing exactly matched bytes needs its suffix compared.
+        int matched = 0;
+        int pos = restartPoint(low);
+        int nextRestart = low + 1 < restartCount ? restartPoint(low + 1) : restartsOffset;
+        while (pos < restartsOffset) {
+            if (pos == nextRestart) {
+                matched = 0; // a restart key shares nothing with its predecessor by construction, not by order
+            }
+            long varint = readVarint(pos);
+            int shared = (int) (varint >>> 32);
+            varint = readVarint((int) varint);
+            int unshared = (int) (varint >>> 32);
+            varint = readVarint((int) varint);
+            int valueLength = (int) (varint >>> 32);
+            int keyStart = (int) varint;
+            int valueStart = keyStart + unshared;
+
+            if (shared < matched) {
+                return null;
+            }
+            if (shared == matched) {
+                int n = Math.min(unshared, targetLength - matched);
+                int i = 0;
+                while (i < n && data.get(keyStart + i) == target[matched + i]) {
+                    i++;
+                }
+                if (i < n) {
+                    if (Utf8.compare(target, matched + i, 1, data, keyStart + i, 1) < 0) {
+                        return null;
+                    }
+                    matched += i;
+                } else {
+                    int keyLength = shared + unshared;
+                    if (keyLength == targetLength) {
+                        return decodeString(valueStart, valueLength);
+                    }
+                    if (keyLength > targetLength) {
+                        return null; // target is a proper prefix of this key
+                    }
+                    matched = keyLength;
+                }
+            }
+            pos = valueStart + valueLength;
+        }
+        return null;
+    }
+
+    @Override
+    public int size() {
+        return data.limit();
+    }
+
+    @Override
+    public Iterator<Map.Entry<String, String>> iterator() {
+        return new Iterator<>() {
+            private int pos = 0;
+            private byte[] current = new byte[64];
+            private final int[] header = new int[3];
+
+            @Override
+            public boolean hasNext() {
+                return pos < restartsOffset;
+            }
+
+            @Override
+            public Map.Entry<String, String> next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                pos = readHeader(pos, header);
+                int keyLength = header[0] + header[1];
+                if (current.length < keyLength) {
+                    current = Arrays.copyOf(current, Math.max(keyLength, current.length * 2));
+                }
+                data.get(pos, current, header[0], header[1]);
+                pos += header[1];
+                String key = new String(current, 0, keyLength, StandardCharsets.UTF_8);
+                String value = decodeString(pos, header[2]);
+                pos += header[2];
+                return new AbstractMap.SimpleImmutableEntry<>(key, value);
+            }
+        };
+    }
+
+    private int restartPoint(int index) {
+        return data.getInt(restartsOffset + 4 * index);
+    }
+
+    // Reads shared, unshared and value length into header and returns the position of the key suffix.
+    private int readHeader(int pos, int[] header) {
+        for (int i = 0; i < 3; i++) {
+            int value = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = data.get(pos++);
+                value |= (b & 0x7F) << shift;
+                shift += 7;
+            } while (b < 0);
+            header[i] = value;
+        }
+        return pos;
+    }
+
+    // Returns the varint at pos in the high 32 bits and the position after it in the low 32 bits.
+    private long readVarint(int pos) {
+        int value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = data.get(pos++);
+            value |= (b & 0x7F) << shift;
+            shift += 7;
+        } while (b < 0);
+        return (long) value << 32 | pos;
+    }
+
+    private int skipVarint(int pos) {
+        while (data.get(pos++) < 0) {
+            // continuation bit set
+        }
+        return pos;
+    }
+
+    private String decodeString(int pos, int length) {
+        if (BlobReference.isEncoded(data, pos, length)) {
+            return BlobReference.decode(data, pos);
+        }
+        if (data.hasArray()) {
+            return new String(data.array(), data.arrayOffset() + pos, length, StandardCharsets.UTF_8);
+        }
+        byte[] bytes = new byte[length];
+        data.get(pos, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
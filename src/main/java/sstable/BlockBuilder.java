@@ -0,0 +1,82 @@
+package sstable;
+
+import util.Utf8;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+// Builds a prefix-compressed data block. Each key stores only the suffix it does not share with the previous
+// key, except at every RESTART_INTERVAL-th entry (a restart point) where the full key is stored so readers
+// can binary search the restart array and decode at most one interval.
+//
+// Entry: [shared: varint][unshared: varint][value length: varint][key suffix][value]
+// Trailer: [restart offset: 4] * restart count, [restart count: 4]
+class BlockBuilder {
+    static final int RESTART_INTERVAL = 16;
+
+    private final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+    private final List<Integer> restarts = new ArrayList<>();
+    private byte[] lastKey = new byte[0];
+    private int counter = 0;
+
+    BlockBuilder() {
+        restarts.add(0);
+    }
+
+    void add(byte[] key, byte[] value) {
+        int shared = 0;
+        if (counter < RESTART_INTERVAL) {
+            int max = Math.min(lastKey.length, key.length);
+            while (shared < max && lastKey[shared] == key[shared]) {
+                shared++;
+            }
+        } else {
+            restarts.add(buffer.size());
+            counter = 0;
+        }
+        writeVarint(shared);
+        writeVarint(key.length - shared);
+        writeVarint(value.length);
+        buffer.write(key, shared, key.length - shared);
+        buffer.write(value, 0, value.length);
+        lastKey = key;
+        counter++;
+    }
+
+    boolean isEmpty() {
+        return buffer.size() == 0;
+    }
+
+    // Size of the block if it were finished now
+    int estimatedSize() {
+        return buffer.size() + 4 * restarts.size() + 4;
+    }
+
+    byte[] finish() {
+        ByteBuffer trailer = ByteBuffer.allocate(4 * restarts.size() + 4);
+        for (int restart : restarts) {
+            trailer.putInt(restart);
+        }
+        trailer.putInt(restarts.size());
+        buffer.write(trailer.array(), 0, trailer.capacity());
+        return buffer.toByteArray();
+    }
+
+    void reset() {
+        buffer.reset();
+        restarts.clear();
+        restarts.add(0);
+        lastKey = new byte[0];
+        counter = 0;
+    }
+
+    private void writeVarint(int value) {
+        while ((value & ~0x7F) != 0) {
+            buffer.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        buffer.write(value);
+    }
+}
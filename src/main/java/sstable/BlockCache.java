@@ -0,0 +1,170 @@
+package sstable;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+// Capacity-bounded cache of decoded blocks shared by every table of a DB, keyed by (table id, block offset).
+// A table's data blocks and metadata partitions never share an offset, so one key space serves both.
+// Entries are spread over independently locked shards, each an LRU list charged by the block size, so
+// concurrent readers rarely contend on the same lock.
+public class BlockCache {
+    private static final int DEFAULT_SHARD_COUNT = 16;
+    // Rough per-entry cost of the key, map node and block object on top of the block contents
+    private static final int ENTRY_OVERHEAD = 96;
+    // Lookups only compare keys, so a reused per-thread probe keeps cache hits from allocating
+    private static final ThreadLocal<Key> PROBE = ThreadLocal.withInitial(() -> new Key(0, 0));
+
+    private final Shard[] shards;
+    private final long capacity;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    public BlockCache(long capacity) {
+        this(capacity, DEFAULT_SHARD_COUNT);
+    }
+
+    public BlockCache(long capacity, int shardCount) {
+        if (Integer.bitCount(shardCount) != 1) {
+            throw new IllegalArgumentException("Shard count must be a power of two: " + shardCount);
+        }
+        this.capacity = capacity;
+        this.shards = new Shard[shardCount];
+        for (int i = 0; i < shardCount; i++) {
+            shards[i] = new Shard(capacity / shardCount);
+        }
+    }
+
+    CachedBlock get(long tableId, long offset) {
+        Key probe = PROBE.get();
+        probe.tableId = tableId;
+        probe.offset = offset;
+        CachedBlock block = shard(tableId, offset).get(probe);
+        if (block == null) {
+            misses.increment();
+        } else {
+            hits.increment();
+        }
+        return block;
+    }
+
+    void put(long tableId, long offset, CachedBlock block) {
+        shard(tableId, offset).put(new Key(tableId, offset), block, block.size() + ENTRY_OVERHEAD);
+    }
+
+    // Drops every block of a deleted table instead of waiting for them to age out.
+    void evictTable(long tableId) {
+        for (Shard shard : shards) {
+            shard.evictTable(tableId);
+        }
+    }
+
+    private Shard shard(long tableId, long offset) {
+        long hash = (tableId * 0x9E3779B97F4A7C15L) ^ offset;
+        hash ^= hash >>> 32;
+        hash *= 0x9E3779B97F4A7C15L;
+        return shards[(int) (hash >>> 40) & (shards.length - 1)];
+    }
+
+    public long getCapacity() {
+        return capacity;
+    }
+
+    public long getUsage() {
+        long usage = 0;
+        for (Shard shard : shards) {
+            usage += shard.usage();
+        }
+        return usage;
+    }
+
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    // Mutable only for the lookup probe; keys stored in a shard are never changed
+    private static final class Key {
+        long tableId;
+        long offset;
+
+        Key(long tableId, long offset) {
+            this.tableId = tableId;
+            this.offset = offset;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return tableId == other.tableId && offset == other.offset;
+        }
+
+        @Override
+        public int hashCode() {
+            return Long.hashCode(tableId * 31 + offset);
+        }
+    }
+
+    private static final class Entry {
+        final CachedBlock block;
+        final int charge;
+
+        Entry(CachedBlock block, int charge) {
+            this.block = block;
+            this.charge = charge;
+        }
+    }
+
+    private static final class Shard {
+        private final long capacity;
+        private final LinkedHashMap<Key, Entry> lru = new LinkedHashMap<>(64, 0.75f, true);
+        private long usage;
+
+        Shard(long capacity) {
+            this.capacity = capacity;
+        }
+
+        synchronized CachedBlock get(Key key) {
+            Entry entry = lru.get(key);
+            return entry == null ? null : entry.block;
+        }
+
+        synchronized void put(Key key, CachedBlock block, int charge) {
+            if (charge > capacity) {
+                return;
+            }
+            Entry previous = lru.put(key, new Entry(block, charge));
+            if (previous != null) {
+                usage -= previous.charge;
+            }
+            usage += charge;
+            Iterator<Entry> eldest = lru.values().iterator();
+            while (usage > capacity) {
+                usage -= eldest.next().charge;
+                eldest.remove();
+            }
+        }
+
+        synchronized void evictTable(long tableId) {
+            Iterator<Map.Entry<Key, Entry>> entries = lru.entrySet().iterator();
+            while (entries.hasNext()) {
+                Map.Entry<Key, Entry> entry = entries.next();
+                if (entry.getKey().tableId == tableId) {
+                    usage -= entry.getValue().charge;
+                    entries.remove();
+                }
+            }
+        }
+
+        synchronized long usage() {
+            return usage;
+        }
+    }
+}
@@ -0,0 +1,177 @@
+package sstable;
+
+import util.Utf8;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+
+// Index of a table's data blocks as three flat arrays instead of a map of String keys to BlockInfo objects,
+// so a table costs a handful of objects however many blocks it has. Each block is indexed by a separator:
+// a key that is greater than every key of the previous block and no greater than the first key of its own
+// block. The shortest such key is a prefix of that first key, and lookups only compare raw bytes, so it
+// need not be valid UTF-8.
+final class BlockIndex implements CachedBlock {
+    // Separator i is keys[keyOffsets[i], keyOffsets[i + 1]); block i is handles[2i] and handles[2i + 1]
+    private final byte[] keys;
+    private final int[] keyOffsets;
+    private final long[] handles;
+
+    private BlockIndex(byte[] keys, int[] keyOffsets, long[] handles) {
+        this.keys = keys;
+        this.keyOffsets = keyOffsets;
+        this.handles = handles;
+    }
+
+    int blockCount() {
+        return keyOffsets.length - 1;
+    }
+
+    long offset(int block) {
+        return handles[2 * block];
+    }
+
+    long length(int block) {
+        return handles[2 * block + 1];
+    }
+
+    byte[] separator(int block) {
+        return Arrays.copyOfRange(keys, keyOffsets[block], keyOffsets[block + 1]);
+    }
+
+    BlockInfo handle(int block) {
+        return new BlockInfo(offset(block), length(block));
+    }
+
+    // Block handles in key order, created as they are visited.
+    List<BlockInfo> handles() {
+        return new AbstractList<BlockInfo>() {
+            @Override
+            public BlockInfo get(int block) {
+                return handle(block);
+            }
+
+            @Override
+            public int size() {
+                return blockCount();
+            }
+        };
+    }
+
+    int find(String key) {
+        byte[] target = key.getBytes(StandardCharsets.UTF_8);
+        return find(target, target.length);
+    }
+
+    // Returns the block that may hold the UTF-8 encoded key target[0, targetLength), i.e. the last one whose
+    // separator is <= it, or -1 if it sorts before every block.
+    int find(byte[] target, int targetLength) {
+        int low = 0;
+        int high = blockCount() - 1;
+        int found = -1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int start = keyOffsets[mid];
+            if (Utf8.compare(keys, start, keyOffsets[mid + 1] - start, target, 0, targetLength) <= 0) {
+                found = mid;
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return found;
+    }
+
+    // Heap bytes held by the three arrays
+    @Override
+    public int size() {
+        return 16 + keys.length + 16 + 4 * keyOffsets.length + 16 + 8 * handles.length;
+    }
+
+    // Layout: [block count: 4] then per block [separator length: 4][separator][offset: 8][length: 8]
+    void writeTo(DataOutput out) throws IOException {
+        out.writeInt(blockCount());
+        for (int i = 0; i < blockCount(); i++) {
+            out.writeInt(keyOffsets[i + 1] - keyOffsets[i]);
+            out.write(keys, keyOffsets[i], keyOffsets[i + 1] - keyOffsets[i]);
+            out.writeLong(offset(i));
+            out.writeLong(length(i));
+        }
+    }
+
+    static BlockIndex readFrom(DataInput in) throws IOException {
+        int count = in.readInt();
+        Builder builder = new Builder();
+        for (int i = 0; i < count; i++) {
+            byte[] separator = new byte[in.readInt()];
+            in.readFully(separator);
+            builder.add(separator, in.readLong(), in.readLong());
+        }
+        return builder.build();
+    }
+
+    // Indexes the blocks by their full first keys.
+    static BlockIndex of(NavigableMap<String, BlockInfo> index) {
+        Builder builder = new Builder();
+        for (Map.Entry<String, BlockInfo> entry : index.entrySet()) {
+            builder.add(entry.getKey().getBytes(StandardCharsets.UTF_8),
+                    entry.getValue().offset, entry.getValue().length);
+        }
+        return builder.build();
+    }
+
+    // The shortest prefix of firstKey that is still greater than lastKey, which must sort before firstKey.
+    static byte[] shortestSeparator(byte[] lastKey, byte[] firstKey) {
+        int shared = 0;
+        int limit = Math.min(lastKey.length, firstKey.length);
+        while (shared < limit && lastKey[shared] == firstKey[shared]) {
+            shared++;
+        }
+        return Arrays.copyOf(firstKey, Math.min(shared + 1, firstKey.length));
+    }
+
+    // Blocks must be added in key order.
+    static final class Builder {
+        private byte[] keys = new byte[1024];
+        private int keysLength;
+        private int[] keyOffsets = new int[65];
+        private long[] handles = new long[128];
+        private int count;
+
+        int count() {
+            return count;
+        }
+
+        // Bytes that writeTo will produce for the blocks added so far
+        int serializedSize() {
+            return 4 + keysLength + 20 * count;
+        }
+
+        Builder add(byte[] separator, long offset, long length) {
+            if (keysLength + separator.length > keys.length) {
+                keys = Arrays.copyOf(keys, Math.max(keysLength + separator.length, 2 * keys.length));
+            }
+            if (2 * count + 2 > handles.length) {
+                handles = Arrays.copyOf(handles, 2 * handles.length);
+                keyOffsets = Arrays.copyOf(keyOffsets, handles.length / 2 + 1);
+            }
+            System.arraycopy(separator, 0, keys, keysLength, separator.length);
+            keysLength += separator.length;
+            handles[2 * count] = offset;
+            handles[2 * count + 1] = length;
+            keyOffsets[++count] = keysLength;
+            return this;
+        }
+
+        BlockIndex build() {
+            return new BlockIndex(Arrays.copyOf(keys, keysLength), Arrays.copyOf(keyOffsets, count + 1),
+                    Arrays.copyOf(handles, 2 * count));
+        }
+    }
+}
@@ -0,0 +1,7 @@
+package sstable;
+
+// Anything the block cache holds: decoded data blocks and the index and filter partitions of a table.
+interface CachedBlock {
+    // Size of the decoded contents in bytes, which is what the block cache charges for it.
+    int size();
+}
@@ -0,0 +1,18 @@
+package sstable;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.Map;
+
+// A decoded data block of either the prefix-compressed or the legacy raw record format.
+interface DataBlock extends CachedBlock {
+    // Returns the value stored for the UTF-8 encoded key[0, length), or null if this block does not hold it.
+    String get(byte[] key, int length);
+
+    default String get(String key) {
+        byte[] bytes = key.getBytes(StandardCharsets.UTF_8);
+        return get(bytes, bytes.length);
+    }
+
+    Iterator<Map.Entry<String, String>> iterator();
+}
@@ -0,0 +1,19 @@
+package sstable;
+
+import util.KeyFilter;
+
+// The filter over the keys of one index partition, as held by the block cache.
+final class FilterPartition implements CachedBlock {
+    final KeyFilter filter;
+    private final int size;
+
+    FilterPartition(KeyFilter filter, int size) {
+        this.filter = filter;
+        this.size = size;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+}
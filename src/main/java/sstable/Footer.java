@@ -0,0 +1,74 @@
+package sstable;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+
+// Fixed-size trailer of a block-based table, locating the metadata blocks so that opening a table only
+// reads the tail of the file.
+// Layout: [filter handle: 16][index handle: 16][properties handle: 16][format version: 4][magic: 8]
+class Footer {
+    static final int SIZE = 3 * 16 + 4 + 8;
+    static final long MAGIC = 0x4A4C534D53535442L; // "JLSMSSTB"
+    // Data blocks of raw records, as written before the footer existed
+    static final int RAW_RECORDS_VERSION = 1;
+    // Prefix-compressed data blocks with restart points
+    static final int PREFIX_BLOCKS_VERSION = 2;
+    // Every data block ends with a one byte CompressionType id
+    static final int COMPRESSED_BLOCKS_VERSION = 3;
+    // The filter block starts with a one byte FilterType id instead of holding a Guava filter
+    static final int TYPED_FILTER_VERSION = 4;
+    // Index entries hold the shortest separator between adjacent blocks instead of each block's first key
+    static final int SEPARATOR_INDEX_VERSION = 5;
+    // The properties block ends with the number of index partitions, 0 for a single-level index and filter
+    static final int PARTITIONED_METADATA_VERSION = 6;
+    // Every block ends with the CRC32C of its contents
+    static final int CHECKSUMMED_BLOCKS_VERSION = 7;
+    // Values may be BlobReferences to values kept in blob files
+    static final int BLOB_REFERENCES_VERSION = 8;
+    static final int FORMAT_VERSION = BLOB_REFERENCES_VERSION;
+
+    final BlockInfo filterHandle;
+    final BlockInfo indexHandle;
+    final BlockInfo propertiesHandle;
+    final int formatVersion;
+
+    Footer(BlockInfo filterHandle, BlockInfo indexHandle, BlockInfo propertiesHandle, int formatVersion) {
+        this.filterHandle = filterHandle;
+        this.indexHandle = indexHandle;
+        this.propertiesHandle = propertiesHandle;
+        this.formatVersion = formatVersion;
+    }
+
+    byte[] encode() {
+        ByteBuffer buffer = ByteBuffer.allocate(SIZE);
+        for (BlockInfo handle : new BlockInfo[]{filterHandle, indexHandle, propertiesHandle}) {
+            buffer.putLong(handle.offset).putLong(handle.length);
+        }
+        buffer.putInt(formatVersion).putLong(MAGIC);
+        return buffer.array();
+    }
+
+    // Returns null for files without a footer, i.e. tables written before the format carried its metadata.
+    static Footer read(RandomAccessFile file) throws IOException {
+        long fileLength = file.length();
+        if (fileLength < SIZE) {
+            return null;
+        }
+        byte[] bytes = new byte[SIZE];
+        file.seek(fileLength - SIZE);
+        file.readFully(bytes);
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        if (buffer.getLong(SIZE - 8) != MAGIC) {
+            return null;
+        }
+        BlockInfo filterHandle = new BlockInfo(buffer.getLong(), buffer.getLong());
+        BlockInfo indexHandle = new BlockInfo(buffer.getLong(), buffer.getLong());
+        BlockInfo propertiesHandle = new BlockInfo(buffer.getLong(), buffer.getLong());
+        int formatVersion = buffer.getInt();
+        if (formatVersion > FORMAT_VERSION) {
+            throw new IOException("Unsupported SSTable format version " + formatVersion);
+        }
+        return new Footer(filterHandle, indexHandle, propertiesHandle, formatVersion);
+    }
+}
@@ -0,0 +1,77 @@
+package sstable;
+
+import util.Utf8;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+// Reader for blocks of tables written before prefix compression: back-to-back
+// [key length: 4][key][value length: 4][value] records.
+class LegacyBlock implements DataBlock {
+    private final ByteBuffer data;
+
+    LegacyBlock(ByteBuffer data) {
+        this.data = data;
+    }
+
+    // Compares the keys in place and decodes only the matching value.
+    @Override
+    public String get(byte[] key, int length) {
+        int pos = 0;
+        while (pos < data.limit()) {
+            int keyLength = data.getInt(pos);
+            int valuePos = pos + 4 + keyLength;
+            int valueLength = data.getInt(valuePos);
+            int cmp = Utf8.compare(key, 0, length, data, pos + 4, keyLength);
+            if (cmp == 0) {
+                byte[] value = new byte[valueLength];
+                data.get(valuePos + 4, value);
+                return new String(value, StandardCharsets.UTF_8);
+            }
+            if (cmp < 0) {
+                return null;
+            }
+            pos = valuePos + 4 + valueLength;
+        }
+        return null;
+    }
+
+    @Override
+    public int size() {
+        return data.limit();
+    }
+
+    @Override
+    public Iterator<Map.Entry<String, String>> iterator() {
+        return new Iterator<>() {
+            private int pos = 0;
+
+            @Override
+            public boolean hasNext() {
+                return pos < data.limit();
+            }
+
+            @Override
+            public Map.Entry<String, String> next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                String key = readString();
+                String value = readString();
+                return new AbstractMap.SimpleImmutableEntry<>(key, value);
+            }
+
+            private String readString() {
+                int length = data.getInt(pos);
+                byte[] bytes = new byte[length];
+                data.get(pos + 4, bytes);
+                pos += 4 + length;
+                return new String(bytes, StandardCharsets.UTF_8);
+            }
+        };
+    }
+}
@@ -0,0 +1,64 @@
+package sstable;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+// Read-only mapping of a table's data blocks. A MappedByteBuffer is limited to 2 GB, so larger files are
+// mapped as a series of fixed-size chunks. A block that straddles two chunks is copied out; every other
+// block is returned as a view of the mapping without any copy.
+//
+// Java 17 has no supported way to unmap, so the mapping is released by the garbage collector once the
+// table drops its reference. Until then, readers still holding a view keep reading valid memory even if
+// the file was deleted.
+final class MappedFile {
+    private static final int DEFAULT_CHUNK_BITS = 30;
+
+    private final MappedByteBuffer[] chunks;
+    private final int chunkBits;
+    private final long length;
+
+    MappedFile(String filePath, long length) throws IOException {
+        this(filePath, length, DEFAULT_CHUNK_BITS);
+    }
+
+    MappedFile(String filePath, long length, int chunkBits) throws IOException {
+        this.chunkBits = chunkBits;
+        this.length = length;
+        long chunkSize = 1L << chunkBits;
+        this.chunks = new MappedByteBuffer[(int) ((length + chunkSize - 1) >>> chunkBits)];
+        // The mapping stays valid after the channel is closed
+        try (FileChannel channel = FileChannel.open(Paths.get(filePath), StandardOpenOption.READ)) {
+            for (int i = 0; i < chunks.length; i++) {
+                long start = (long) i << chunkBits;
+                chunks[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(chunkSize, length - start));
+            }
+        }
+    }
+
+    // Returns the bytes [offset, offset + size) with position 0 and limit size.
+    ByteBuffer slice(long offset, int size) throws IOException {
+        if (offset < 0 || offset + size > length) {
+            throw new IOException("Read of " + size + " bytes at " + offset + " is outside the mapped " + length + " bytes");
+        }
+        int chunk = (int) (offset >>> chunkBits);
+        int chunkOffset = (int) (offset & ((1L << chunkBits) - 1));
+        if (chunkOffset + size <= chunks[chunk].capacity()) {
+            return chunks[chunk].slice(chunkOffset, size);
+        }
+
+        byte[] copy = new byte[size];
+        int copied = 0;
+        while (copied < size) {
+            int n = Math.min(size - copied, chunks[chunk].capacity() - chunkOffset);
+            chunks[chunk].get(chunkOffset, copy, copied, n);
+            copied += n;
+            chunk++;
+            chunkOffset = 0;
+        }
+        return ByteBuffer.wrap(copy);
+    }
+}
@@ -0,0 +1,49 @@
+package sstable;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Collects the index of a table being written, cut into partitions of about partitionSize serialized bytes,
+// or kept as one partition when partitionSize is 0. A partition ends after whole data blocks, and records
+// how many key hashes its blocks account for so that a filter can be built for each partition.
+final class PartitionedIndexBuilder {
+    private final int partitionSize;
+    private final List<BlockIndex> partitions = new ArrayList<>();
+    private final List<Integer> hashEnds = new ArrayList<>();
+    private BlockIndex.Builder current = new BlockIndex.Builder();
+
+    PartitionedIndexBuilder(int partitionSize) {
+        this.partitionSize = partitionSize;
+    }
+
+    // hashEnd is the number of key hashes collected once the block's keys are included.
+    void add(byte[] separator, BlockInfo handle, int hashEnd) {
+        current.add(separator, handle.offset, handle.length);
+        if (partitionSize > 0 && current.serializedSize() >= partitionSize) {
+            finishPartition(hashEnd);
+        }
+    }
+
+    private void finishPartition(int hashEnd) {
+        partitions.add(current.build());
+        hashEnds.add(hashEnd);
+        current = new BlockIndex.Builder();
+    }
+
+    // Partitions in key order; an empty table has a single empty partition.
+    List<BlockIndex> finish(int hashCount) {
+        if (current.count() > 0 || partitions.isEmpty()) {
+            finishPartition(hashCount);
+        }
+        return partitions;
+    }
+
+    // Key hashes [hashStart(p), hashEnd(p)) belong to the blocks of partition p
+    int hashStart(int partition) {
+        return partition == 0 ? 0 : hashEnds.get(partition - 1);
+    }
+
+    int hashEnd(int partition) {
+        return hashEnds.get(partition);
+    }
+}
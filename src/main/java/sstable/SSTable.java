@@ -2,39 +2,121 @@ package sstable;
 
 import memtable.Memtable;
 import util.BloomFilterUtil;
+import util.ChecksumVerification;
+import util.CompressionType;
+import util.DBOptions;
+import util.FilterType;
 import util.IOUtils;
+import util.KeyFilter;
+import util.KeyHash;
+import util.LookupKey;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.CRC32C;
 
 public class SSTable {
+    private static final AtomicLong NEXT_ID = new AtomicLong();
+    private static final ThreadLocal<CRC32C> CRC = ThreadLocal.withInitial(CRC32C::new);
+
+    // Identifies this table's blocks in the block cache; unlike the path it is never reused
+    private final long id = NEXT_ID.incrementAndGet();
     private final String filePath;
-    public final BloomFilterUtil bloomFilterUtil;
-    private final NavigableMap<String, BlockInfo> index;
+    // Assigned once, by the constructor or by the scan of a table without metadata
+    private KeyFilter filter;
+    private BlockIndex index;
+    // Set for partitioned tables, whose index is a top-level index over the index partitions. Partition p
+    // has the filter at filterPartitions[2p] of length filterPartitions[2p + 1]; filter is then unused.
+    private long[] filterPartitions;
+    private FilterType filterType;
     private String minKey;
     private String maxKey;
-    private static final int BLOCK_SIZE = 4000;
-    private static final int SSTABLE_SIZE_THRESHOLD = 4 * 1024 * 1024;
-
+    // Data blocks occupy [0, dataLength); the metadata blocks and footer follow
+    private long dataLength;
+    private long entryCount;
+    // Footer.FORMAT_VERSION of the table, 0 if it has no footer
+    private final int formatVersion;
+    private volatile BlockCache blockCache;
+    private volatile TableCache tableCache;
+    private volatile boolean mmapReads;
+    private volatile ChecksumVerification checksumVerification = ChecksumVerification.ON_CACHE_LOAD;
+    // Resolves values kept in blob files; only needed for tables that reference any
+    private volatile BlobStore blobStore;
+    // Created on the first read in mmap mode and dropped when the table is deleted
+    private volatile MappedFile mappedFile;
+    // Set by delete; later reads fail instead of reopening or mapping the missing file
+    private volatile boolean deleted;
+    // Lookups the filter rejected, and lookups it let through for keys the table doesn't hold
+    private final LongAdder filterNegatives = new LongAdder();
+    private final LongAdder filterFalsePositives = new LongAdder();
+    static final int BLOCK_SIZE = 4000;
+    // Read-ahead buffer bytes of all inputs of one sortedRun together
+    private static final long MAX_COMPACTION_READAHEAD = 64 * 1024 * 1024L;
+
+    // Block-based tables are opened from their footer and metadata blocks without touching the data blocks.
     public SSTable(String filePath) throws IOException {
         this.filePath = filePath;
-        this.index = new TreeMap<>();
-        this.bloomFilterUtil = new BloomFilterUtil(36000, 0.03);
         this.minKey = null;
         this.maxKey = null;
-        init();
+
+        try (RandomAccessFile file = new RandomAccessFile(filePath, "r")) {
+            Footer footer = Footer.read(file);
+            this.formatVersion = footer != null ? footer.formatVersion : 0;
+            if (footer != null) {
+                int partitions = readProperties(readMetadataBlock(file, footer.propertiesHandle), formatVersion);
+                byte[] filterBlock = readMetadataBlock(file, footer.filterHandle);
+                if (partitions > 0) {
+                    readFilterPartitions(filterBlock, partitions);
+                } else {
+                    filter = readFilter(filterBlock, formatVersion);
+                }
+                readIndex(readMetadataBlock(file, footer.indexHandle));
+            }
+        }
+        if (formatVersion == 0) {
+            // Written before tables carried their own metadata, so the index and filter are rebuilt by a full scan
+            init();
+        }
+    }
+
+    // For tables of raw records whose index was built by the caller
+    public SSTable(String filePath, KeyFilter filter, NavigableMap<String, BlockInfo> index, String minKey, String maxKey) {
+        this(filePath, filter, BlockIndex.of(index), minKey, maxKey, new File(filePath).length(), index.isEmpty() ? 0 : -1, 0);
     }
 
+    // Kept so code built against the Bloom-filter-only constructor still links
     public SSTable(String filePath, BloomFilterUtil bloomFilterUtil, NavigableMap<String, BlockInfo> index, String minKey, String maxKey) {
+        this(filePath, (KeyFilter) bloomFilterUtil, index, minKey, maxKey);
+    }
+
+    private SSTable(String filePath, KeyFilter filter, BlockIndex index,
+                    String minKey, String maxKey, long dataLength, long entryCount, int formatVersion) {
+        this(filePath, filter, index, null, null, minKey, maxKey, dataLength, entryCount, formatVersion);
+    }
+
+    SSTable(String filePath, KeyFilter filter, BlockIndex index, long[] filterPartitions, FilterType filterType,
+            String minKey, String maxKey, long dataLength, long entryCount, int formatVersion) {
+        this.formatVersion = formatVersion;
         this.filePath = filePath;
-        this.bloomFilterUtil = bloomFilterUtil;
+        this.filter = filter;
         this.index = index;
+        this.filterPartitions = filterPartitions;
+        this.filterType = filterType;
         this.minKey = minKey;
         this.maxKey = maxKey;
+        this.dataLength = dataLength;
+        this.entryCount = entryCount;
     }
 
     public void init() throws IOException {
+        long[] hashes = new long[1024];
+        int hashCount = 0;
+        BlockIndex.Builder indexBuilder = new BlockIndex.Builder();
         try (RandomAccessFile file = new RandomAccessFile(filePath, "r")) {
             long blockStart = 0L;
             long blockLength = 0L;
@@ -53,7 +135,7 @@ public class SSTable {
                 maxKey = key;
 
                 if (blockLength + recLen > BLOCK_SIZE && blockFirstKey != null) {
-                    index.put(blockFirstKey, new BlockInfo(blockStart, blockLength));
+                    indexBuilder.add(blockFirstKey.getBytes(StandardCharsets.UTF_8), blockStart, blockLength);
                     blockStart = recordStart;
                     blockLength = 0L;
                     blockFirstKey = null;
@@ -63,74 +145,171 @@ public class SSTable {
                     blockFirstKey = key;
                 }
 
-                bloomFilterUtil.add(key);
+                if (hashCount == hashes.length) {
+                    hashes = Arrays.copyOf(hashes, hashCount * 2);
+                }
+                hashes[hashCount++] = KeyHash.hash(key);
                 blockLength += recLen;
+                entryCount++;
             }
 
             if (blockFirstKey != null) {
-                index.put(blockFirstKey, new BlockInfo(blockStart, blockLength));
+                indexBuilder.add(blockFirstKey.getBytes(StandardCharsets.UTF_8), blockStart, blockLength);
             }
+            dataLength = file.length();
         }
+        index = indexBuilder.build();
+        filter = FilterType.BLOCKED_BLOOM.build(hashes, hashCount, new DBOptions().getBloomBitsPerKey());
     }
 
-    public static SSTable createSSTableFromMemtable(Memtable memtable) throws IOException {
-        String filePath = "./data/sstable_" + System.nanoTime() + ".sst";
-        BloomFilterUtil bloomFilterUtil = new BloomFilterUtil(36000, 0.03);
-        TreeMap<String, BlockInfo> index = new TreeMap<>();
-        String minKey = null;
-        String maxKey = null;
+    private static byte[] readBlock(RandomAccessFile file, BlockInfo handle) throws IOException {
+        byte[] block = new byte[(int) handle.length];
+        file.seek(handle.offset);
+        file.readFully(block);
+        return block;
+    }
 
-        try (RandomAccessFile file = new RandomAccessFile(filePath, "rw")) {
-            Iterator<Map.Entry<String, String>> entries = memtable.iterator();
-            long blockStart = 0L;
-            long blockLength = 0L;
-            String blockFirstKey = null;
+    // Metadata blocks are read once per open, so their checksums are always verified.
+    private byte[] readMetadataBlock(RandomAccessFile file, BlockInfo handle) throws IOException {
+        byte[] block = readBlock(file, handle);
+        int length = checkBlock(ByteBuffer.wrap(block), handle.offset, true).limit();
+        return length == block.length ? block : Arrays.copyOf(block, length);
+    }
 
-            while (entries.hasNext()) {
-                Map.Entry<String, String> entry = entries.next();
-                String key = entry.getKey();
-                String value = entry.getValue();
-                byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
-                byte[] valueBytes = IOUtils.serializeValue(value);
-                long recLen = 4 + keyBytes.length + 4 + valueBytes.length;
+    // Blocks of tables since CHECKSUMMED_BLOCKS_VERSION end with the CRC32C of everything before it. Drops the
+    // checksum from the limit of raw, which holds the block from position 0, verifying it first if asked to.
+    private ByteBuffer checkBlock(ByteBuffer raw, long offset, boolean verify) throws IOException {
+        if (formatVersion < Footer.CHECKSUMMED_BLOCKS_VERSION) {
+            return raw;
+        }
+        int length = raw.limit() - 4;
+        if (length < 0) {
+            throw new IOException("Block at " + offset + " of " + filePath + " is too short for its checksum");
+        }
+        if (verify && checksum(raw, length) != raw.getInt(length)) {
+            throw new IOException("Checksum mismatch in block at " + offset + " of " + filePath);
+        }
+        return raw.limit(length);
+    }
 
-                if (blockLength + recLen > BLOCK_SIZE && blockFirstKey != null) {
-                    index.put(blockFirstKey, new BlockInfo(blockStart, blockLength));
-                    blockStart = file.getFilePointer();
-                    blockLength = 0L;
-                    blockFirstKey = null;
-                }
+    private static int checksum(ByteBuffer block, int length) {
+        CRC32C crc = CRC.get();
+        crc.reset();
+        if (block.hasArray()) {
+            crc.update(block.array(), block.arrayOffset(), length);
+        } else {
+            crc.update(block.duplicate().position(0).limit(length));
+        }
+        return (int) crc.getValue();
+    }
 
-                if (blockFirstKey == null) {
-                    blockFirstKey = key;
-                }
+    // Whether a block read from the file or the mapping is verified. caching is set for blocks that are about
+    // to enter the block cache, compaction for blocks read by compaction and full scans.
+    private boolean shouldVerify(boolean caching, boolean compaction) {
+        switch (checksumVerification) {
+            case ALWAYS:
+                return true;
+            case ON_CACHE_LOAD:
+                return caching;
+            case COMPACTION_ONLY:
+                return compaction;
+            default:
+                return false;
+        }
+    }
 
-                file.writeInt(keyBytes.length);
-                file.write(keyBytes);
-                file.writeInt(valueBytes.length);
-                file.write(valueBytes);
+    // Layout: [FilterType id: 1][filter]. Before TYPED_FILTER_VERSION the block held a Guava filter only.
+    private static KeyFilter readFilter(byte[] block, int formatVersion) throws IOException {
+        if (formatVersion < Footer.TYPED_FILTER_VERSION) {
+            return BloomFilterUtil.readFrom(new ByteArrayInputStream(block));
+        }
+        if (block.length == 0) {
+            throw new IOException("Empty filter block");
+        }
+        return FilterType.fromId(block[0]).read(ByteBuffer.wrap(block, 1, block.length - 1).slice());
+    }
 
-                bloomFilterUtil.add(key);
-                if (minKey == null) {
-                    minKey = key;
-                }
-                maxKey = key;
+    // Layout: [FilterType id: 1] then per partition [filter offset: 8][filter length: 8]
+    private void readFilterPartitions(byte[] block, int partitions) throws IOException {
+        ByteBuffer in = ByteBuffer.wrap(block);
+        filterType = FilterType.fromId(in.get());
+        if (in.remaining() != 16L * partitions) {
+            throw new IOException("Filter block of " + block.length + " bytes for " + partitions + " partitions");
+        }
+        filterPartitions = new long[2 * partitions];
+        in.asLongBuffer().get(filterPartitions);
+    }
 
-                blockLength += recLen;
+    private void readIndex(byte[] block) throws IOException {
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(block))) {
+            index = BlockIndex.readFrom(in);
+        }
+    }
+
+    // Returns the number of index partitions, 0 for a table with a single-level index and filter.
+    private int readProperties(byte[] block, int formatVersion) throws IOException {
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(block))) {
+            entryCount = in.readLong();
+            dataLength = in.readLong();
+            if (entryCount > 0) {
+                minKey = IOUtils.readString(in);
+                maxKey = IOUtils.readString(in);
             }
+            return formatVersion >= Footer.PARTITIONED_METADATA_VERSION ? in.readInt() : 0;
+        }
+    }
 
-            if (blockFirstKey != null) {
-                index.put(blockFirstKey, new BlockInfo(blockStart, blockLength));
+    public static SSTable createSSTableFromMemtable(Memtable memtable) throws IOException {
+        return createSSTableFromMemtable(memtable, new DBOptions(), 0);
+    }
+
+    // Writes the memtable as a table of the given level, using that level's settings from options.
+    public static SSTable createSSTableFromMemtable(Memtable memtable, DBOptions options, int level) throws IOException {
+        return createSSTableFromMemtable(memtable, options, level, null);
+    }
+
+    // Values of at least options.blobValueThreshold bytes go to blobs, if given. The caller commits blobs
+    // along with the table.
+    public static SSTable createSSTableFromMemtable(Memtable memtable, DBOptions options, int level,
+                                                    BlobStore.Writer blobs) throws IOException {
+        try (TableBuilder builder = new TableBuilder(newTablePath("./data"), options, level, blobs)) {
+            Iterator<Map.Entry<String, String>> entries = memtable.iterator();
+            while (entries.hasNext()) {
+                Map.Entry<String, String> entry = entries.next();
+                builder.add(entry.getKey(), entry.getValue());
             }
+            if (blobs != null) {
+                blobs.finish();
+            }
+            return builder.finish();
         }
+    }
 
-        return new SSTable(filePath, bloomFilterUtil, index, minKey, maxKey);
+    private static String newTablePath(String dataDir) {
+        return dataDir + "/sstable_" + System.nanoTime() + ".sst";
     }
 
     public static List<SSTable> sortedRun(String dataDir, List<SSTable> tables) throws IOException {
+        return sortedRun(dataDir, tables, new DBOptions(), 1);
+    }
+
+    public static List<SSTable> sortedRun(String dataDir, List<SSTable> tables, DBOptions options, int outputLevel) throws IOException {
+        return sortedRun(dataDir, tables, options, outputLevel, null);
+    }
+
+    // Merges the tables into new ones for outputLevel, written with that level's settings from options.
+    // The inputs are read ahead in large chunks that bypass the block cache, see setCompactionReadaheadSize.
+    // Blob references are carried over without reading their values, except from blob files due for garbage
+    // collection. blobs, if given, receives those values and large inline ones, and records the references
+    // the merge drops; the caller commits it along with the new tables.
+    public static List<SSTable> sortedRun(String dataDir, List<SSTable> tables, DBOptions options, int outputLevel,
+                                          BlobStore.Writer blobs) throws IOException {
+        // Every input is open for the whole merge, so a merge of many tables gets less read-ahead per table
+        int readAhead = (int) Math.min(options.getCompactionReadaheadSize(),
+                MAX_COMPACTION_READAHEAD / Math.max(1, tables.size()));
         SSTableIterator[] iterators = new SSTableIterator[tables.size()];
         for (int i = 0; i < tables.size(); i++) {
-            iterators[i] = new SSTableIterator(tables.get(i));
+            iterators[i] = new SSTableIterator(tables.get(i), readAhead);
         }
 
         PriorityQueue<SSTableEntry> queue = new PriorityQueue<>(new Comparator<SSTableEntry>() {
@@ -152,187 +331,443 @@ public class SSTable {
         }
 
         List<SSTable> newSSTables = new ArrayList<>();
-        List<Map.Entry<String, String>> buffer = new ArrayList<>();
-        long currentSize = 0;
+        // Output table being written, created on the first live entry after the previous one was finished
+        TableBuilder builder = null;
         String lastKey = null;
 
-        while (!queue.isEmpty()) {
-            SSTableEntry entry = queue.poll();
-            String key = entry.key;
-            String value = entry.value;
-
-            if (lastKey == null || !lastKey.equals(key)) {
-                lastKey = key;
-                if (!"<TOMBSTONE>".equals(value)) {
-                    buffer.add(new AbstractMap.SimpleEntry<>(key, value));
-                    currentSize += 4 + key.getBytes(StandardCharsets.UTF_8).length +
-                            4 + value.getBytes(StandardCharsets.UTF_8).length;
+        try {
+            while (!queue.isEmpty()) {
+                SSTableEntry entry = queue.poll();
+                String key = entry.key;
+                String value = entry.value;
+
+                if (lastKey == null || !lastKey.equals(key)) {
+                    lastKey = key;
+                    if (!"<TOMBSTONE>".equals(value)) {
+                        if (builder == null) {
+                            builder = new TableBuilder(newTablePath(dataDir), options, outputLevel, blobs);
+                        }
+                        if (BlobReference.isReference(value)) {
+                            builder.addReference(key, blobs != null ? blobs.relocate(value) : value);
+                        } else {
+                            builder.add(key, value);
+                        }
+                        if (builder.entryBytes() > options.getTargetFileSize()) {
+                            newSSTables.add(builder.finish());
+                            builder = null;
+                        }
+                    }
+                } else if (blobs != null && BlobReference.isReference(value)) {
+                    // An older version of a key the merge already wrote or deleted
+                    blobs.drop(value);
                 }
-                if (currentSize > SSTABLE_SIZE_THRESHOLD) {
-                    newSSTables.add(createSSTableFromBuffer(dataDir, buffer));
-                    buffer.clear();
-                    currentSize = 0;
+
+                int idx = entry.sstableNumber;
+                if (iterators[idx].hasNext()) {
+                    Map.Entry<String, String> nextEntry = iterators[idx].next();
+                    queue.offer(new SSTableEntry(nextEntry, idx));
                 }
             }
 
-            int idx = entry.sstableNumber;
-            if (iterators[idx].hasNext()) {
-                Map.Entry<String, String> nextEntry = iterators[idx].next();
-                queue.offer(new SSTableEntry(nextEntry, idx));
+            if (builder != null) {
+                newSSTables.add(builder.finish());
+            }
+            if (blobs != null) {
+                blobs.finish();
+            }
+        } finally {
+            // Deletes the partial output table if the merge failed
+            if (builder != null) {
+                builder.close();
+            }
+            for (SSTableIterator iterator : iterators) {
+                iterator.close();
             }
         }
 
-        if (!buffer.isEmpty()) {
-            newSSTables.add(createSSTableFromBuffer(dataDir, buffer));
-        }
+        return newSSTables;
+    }
 
-        for (SSTableIterator iterator : iterators) {
-            iterator.close();
+    public boolean mightContain(String key) {
+        if (filterPartitions == null) {
+            return filter.mightContain(key);
+        }
+        LookupKey lookupKey = new LookupKey(key);
+        int partition = index.find(lookupKey.bytes, lookupKey.bytes.length);
+        try {
+            return partition >= 0 && filterPartition(partition).mightContain(lookupKey);
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to read SSTable: " + filePath, e);
         }
-
-        return newSSTables;
     }
 
-    private static SSTable createSSTableFromBuffer(String dataDir, List<Map.Entry<String, String>> buffer) throws IOException {
-        String filePath = dataDir + "/sstable_" + System.nanoTime() + ".sst";
-        BloomFilterUtil bloomFilterUtil = new BloomFilterUtil(36000, 0.03);
-        TreeMap<String, BlockInfo> index = new TreeMap<>();
-        String minKey = null;
-        String maxKey = null;
+    public String get(String key) {
+        return get(new LookupKey(key));
+    }
 
-        try (RandomAccessFile file = new RandomAccessFile(filePath, "rw")) {
-            long blockStart = 0L;
-            long blockLength = 0L;
-            String blockFirstKey = null;
+    // For lookups that probe several tables with one key, encoded and hashed once
+    public String get(LookupKey key) {
+        if (entryCount == 0) {
+            return null;
+        }
+        if (key.key.compareTo(minKey) < 0 || key.key.compareTo(maxKey) > 0) {
+            return null;
+        }
 
-            for (Map.Entry<String, String> entry : buffer) {
-                String key = entry.getKey();
-                String value = entry.getValue();
-                byte[] keyBytes = IOUtils.serializeValue(key);
-                byte[] valueBytes = IOUtils.serializeValue(value);
-                long recLen = 4 + keyBytes.length + 4 + valueBytes.length;
+        try {
+            return lookup(key, null, null);
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to read SSTable: " + filePath, e);
+        }
+    }
 
-                if (blockLength + recLen > BLOCK_SIZE && blockFirstKey != null) {
-                    index.put(blockFirstKey, new BlockInfo(blockStart, blockLength));
-                    blockStart = file.getFilePointer();
-                    blockLength = 0L;
-                    blockFirstKey = null;
+    // Looks up keys[from, to), sorted and distinct, filling in the values of those it holds. Keys whose value
+    // is already set were found in a newer table and are skipped. Keys in the same data block share one read of
+    // it, and the file is opened at most once for the whole batch.
+    void multiGet(List<LookupKey> keys, String[] values, int from, int to) {
+        if (entryCount == 0) {
+            return;
+        }
+        TableCache.Handle file = null;
+        LastBlock last = new LastBlock();
+        try {
+            for (int i = from; i < to; i++) {
+                LookupKey key = keys.get(i);
+                if (values[i] != null || key.key.compareTo(minKey) < 0) {
+                    continue;
                 }
-
-                if (blockFirstKey == null) {
-                    blockFirstKey = key;
+                if (key.key.compareTo(maxKey) > 0) {
+                    break;
                 }
-
-                file.writeInt(keyBytes.length);
-                file.write(keyBytes);
-                file.writeInt(valueBytes.length);
-                file.write(valueBytes);
-
-                bloomFilterUtil.add(key);
-                if (minKey == null) {
-                    minKey = key;
+                if (file == null && !mmapReads) {
+                    file = openFile();
                 }
-                maxKey = key;
-
-                blockLength += recLen;
+                values[i] = lookup(key, file, last);
             }
-
-            if (blockFirstKey != null) {
-                index.put(blockFirstKey, new BlockInfo(blockStart, blockLength));
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to read SSTable: " + filePath, e);
+        } finally {
+            if (file != null) {
+                try {
+                    file.close();
+                } catch (IOException e) {
+                    System.err.println("Failed to release SSTable file " + filePath + ": " + e.getMessage());
+                }
             }
         }
-        return new SSTable(filePath, bloomFilterUtil, index, minKey, maxKey);
     }
 
-    public boolean mightContain(String key) {
-        return bloomFilterUtil.mightContain(key);
+    // The data block multiGet decoded last. Sorted keys reach each block in one run, so only the first key of
+    // a run reads it.
+    private static final class LastBlock {
+        long offset = -1;
+        DataBlock block;
     }
 
-    public String get(String key) {
-        if (key.compareTo(minKey) < 0 || key.compareTo(maxKey) > 0) {
+    // Returns the value of a key within the table's key range, or null if the table doesn't hold it. A data block
+    // missing from the block cache is read through file, or, if file is null, from the mapping in mmap mode and
+    // otherwise through a file opened for just this read. last, if given, is reused when it is the key's block.
+    private String lookup(LookupKey key, TableCache.Handle file, LastBlock last) throws IOException {
+        // A partitioned table first finds the partition, whose filter and index then stand in for the table's
+        boolean partitioned = filterPartitions != null;
+        int partition = partitioned ? index.find(key.bytes, key.bytes.length) : 0;
+        if (!(partitioned ? filterPartition(partition) : filter).mightContain(key)) {
+            filterNegatives.increment();
             return null;
         }
 
-        if (!bloomFilterUtil.mightContain(key)) {
+        BlockIndex blocks = partitioned ? indexPartition(partition) : index;
+        int blockIndex = blocks.find(key.bytes, key.bytes.length);
+        if (blockIndex < 0) {
+            filterFalsePositives.increment();
             return null;
         }
 
-        Map.Entry<String, BlockInfo> indexEntry = index.floorEntry(key);
-        if (indexEntry == null) {
-            return null;
+        long offset = blocks.offset(blockIndex);
+        BlockCache cache = blockCache;
+        DataBlock block = last != null && last.offset == offset ? last.block : null;
+        if (block == null && cache != null) {
+            block = (DataBlock) cache.get(id, offset);
+        }
+        if (block == null) {
+            BlockInfo handle = blocks.handle(blockIndex);
+            if (file != null || mmapReads) {
+                block = loadDataBlock(file != null ? file.channel : null, handle, cache, false);
+            } else {
+                try (TableCache.Handle opened = openFile()) {
+                    block = loadDataBlock(opened.channel, handle, cache, false);
+                }
+            }
+        }
+        if (last != null) {
+            last.offset = offset;
+            last.block = block;
+        }
+        String value = block.get(key.bytes, key.bytes.length);
+        if (value == null) {
+            filterFalsePositives.increment();
+        }
+        return value != null && BlobReference.isReference(value) ? readBlob(value) : value;
+    }
+
+    private String readBlob(String reference) throws IOException {
+        BlobStore blobs = blobStore;
+        if (blobs == null) {
+            throw new IOException("Value in " + filePath + " is in a blob file, but the table has no blob store");
         }
+        return blobs.read(reference);
+    }
 
-        BlockInfo blockInfo = indexEntry.getValue();
+    private KeyFilter filterPartition(int partition) throws IOException {
+        FilterPartition cached = (FilterPartition) readPartition(filterPartitions[2 * partition],
+                filterPartitions[2 * partition + 1],
+                block -> new FilterPartition(filterType.read(block), block.limit()));
+        return cached.filter;
+    }
 
-        try (RandomAccessFile file = new RandomAccessFile(filePath, "r")) {
-            file.seek(blockInfo.offset);
-            byte[] blockData = new byte[(int) blockInfo.length];
-            file.readFully(blockData);
-
-            try (ByteArrayInputStream bais = new ByteArrayInputStream(blockData);
-                 DataInputStream dis = new DataInputStream(bais)) {
-                while (dis.available() > 0) {
-                    int keyLength = dis.readInt();
-                    byte[] keyBytes = new byte[keyLength];
-                    dis.readFully(keyBytes);
-                    String currentKey = new String(keyBytes, StandardCharsets.UTF_8);
-
-                    int valueLength = dis.readInt();
-                    byte[] valueBytes = new byte[valueLength];
-                    dis.readFully(valueBytes);
-
-                    if (currentKey.equals(key)) {
-                        return IOUtils.deserializeValue(valueBytes);
-                    }
-                    if (currentKey.compareTo(key) > 0) {
-                        return null;
-                    }
+    private BlockIndex indexPartition(int partition) throws IOException {
+        return (BlockIndex) readPartition(index.offset(partition), index.length(partition),
+                block -> BlockIndex.readFrom(new DataInputStream(
+                        new ByteArrayInputStream(block.array(), 0, block.limit()))));
+    }
+
+    private interface PartitionDecoder {
+        // block holds the partition's contents from position 0 to its limit
+        CachedBlock decode(ByteBuffer block) throws IOException;
+    }
+
+    // Partitions are cached like data blocks. They lie past the data blocks, so they are read from the file
+    // even in mmap mode, which maps only the data blocks.
+    private CachedBlock readPartition(long offset, long length, PartitionDecoder decoder) throws IOException {
+        BlockCache cache = blockCache;
+        CachedBlock partition = cache != null ? cache.get(id, offset) : null;
+        if (partition == null) {
+            ByteBuffer raw;
+            try (TableCache.Handle file = openFile()) {
+                raw = ByteBuffer.wrap(readBlock(file.channel, new BlockInfo(offset, length)));
+            }
+            partition = decoder.decode(checkBlock(raw, offset, shouldVerify(cache != null, false)));
+            if (cache != null) {
+                cache.put(id, offset, partition);
+            }
+        }
+        return partition;
+    }
+
+    // Fraction of lookups for absent keys that the filter failed to reject, measured since the table was opened.
+    public double getFilterFalsePositiveRate() {
+        long falsePositives = filterFalsePositives.sum();
+        long total = falsePositives + filterNegatives.sum();
+        return total == 0 ? 0.0 : (double) falsePositives / total;
+    }
+
+    // Returns the decoded block from the block cache, reading and caching it on a miss.
+    // The file is not used in mmap mode and may be null then.
+    DataBlock readDataBlock(FileChannel file, BlockInfo handle) throws IOException {
+        BlockCache cache = blockCache;
+        DataBlock block = cache != null ? (DataBlock) cache.get(id, handle.offset) : null;
+        return block != null ? block : loadDataBlock(file, handle, cache, true);
+    }
+
+    // compaction is set for reads by compaction and full scans, as opposed to point lookups.
+    private DataBlock loadDataBlock(FileChannel file, BlockInfo handle, BlockCache cache,
+                                    boolean compaction) throws IOException {
+        ByteBuffer raw;
+        if (mmapReads) {
+            raw = mappedFile().slice(handle.offset, (int) handle.length);
+        } else {
+            raw = ByteBuffer.wrap(readBlock(file, handle));
+        }
+        // An uncompressed block read from the mapping is already served from the page cache; caching it
+        // again would only charge the cache for memory it doesn't own
+        boolean cacheable = cache != null && !(raw.isDirect() && !isCompressed(raw));
+        raw = checkBlock(raw, handle.offset, shouldVerify(cacheable, compaction));
+        DataBlock block = decodeDataBlock(raw);
+        if (cacheable) {
+            cache.put(id, handle.offset, block);
+        }
+        return block;
+    }
+
+    // Decodes a block for a scan that bypasses the block cache. raw holds the block as stored, or is null to take
+    // it from the mapping in mmap mode.
+    DataBlock scanDataBlock(ByteBuffer raw, BlockInfo handle) throws IOException {
+        if (raw == null) {
+            raw = mappedFile().slice(handle.offset, (int) handle.length);
+        }
+        return decodeDataBlock(checkBlock(raw, handle.offset, shouldVerify(false, true)));
+    }
+
+    private MappedFile mappedFile() throws IOException {
+        MappedFile mapped = mappedFile;
+        if (mapped == null) {
+            synchronized (this) {
+                mapped = mappedFile;
+                if (mapped == null) {
+                    checkNotDeleted();
+                    mapped = new MappedFile(filePath, dataLength);
+                    mappedFile = mapped;
                 }
             }
-        } catch (IOException e) {
-            throw new RuntimeException("Failed to read SSTable: " + filePath, e);
         }
-        return null;
+        return mapped;
+    }
+
+    // Positional read, so concurrent readers can share the channel
+    private static byte[] readBlock(FileChannel file, BlockInfo handle) throws IOException {
+        ByteBuffer block = ByteBuffer.allocate((int) handle.length);
+        while (block.hasRemaining()) {
+            if (file.read(block, handle.offset + block.position()) < 0) {
+                throw new EOFException("Block at " + handle.offset + " runs past the end of the file");
+            }
+        }
+        return block.array();
+    }
+
+    // Through the table cache when there is one, otherwise a channel opened for this caller only.
+    TableCache.Handle openFile() throws IOException {
+        checkNotDeleted();
+        TableCache cache = tableCache;
+        return cache != null ? cache.acquire(id, filePath) : TableCache.openUncached(filePath);
+    }
+
+    // raw holds the block as stored, from position 0 to its limit.
+    private DataBlock decodeDataBlock(ByteBuffer raw) throws IOException {
+        if (formatVersion < Footer.PREFIX_BLOCKS_VERSION) {
+            return new LegacyBlock(raw);
+        }
+        if (formatVersion < Footer.COMPRESSED_BLOCKS_VERSION) {
+            return new Block(raw);
+        }
+        int length = raw.limit() - 1;
+        CompressionType type = CompressionType.fromId(raw.get(length));
+        if (type == CompressionType.NONE) {
+            return new Block(raw.limit(length));
+        }
+        if (raw.hasArray()) {
+            return new Block(ByteBuffer.wrap(type.codec.decompress(raw.array(), raw.arrayOffset(), length)));
+        }
+        byte[] compressed = new byte[length];
+        raw.get(0, compressed);
+        return new Block(ByteBuffer.wrap(type.codec.decompress(compressed, 0, length)));
+    }
+
+    // raw still ends with the checksum, if the table has one.
+    private boolean isCompressed(ByteBuffer raw) {
+        int trailer = formatVersion >= Footer.CHECKSUMMED_BLOCKS_VERSION ? 4 : 0;
+        return formatVersion >= Footer.COMPRESSED_BLOCKS_VERSION
+                && raw.get(raw.limit() - 1 - trailer) != CompressionType.NONE.id;
+    }
+
+    List<BlockInfo> blockHandles() throws IOException {
+        if (filterPartitions == null) {
+            return index.handles();
+        }
+        List<BlockInfo> handles = new ArrayList<>();
+        for (int p = 0; p < index.blockCount(); p++) {
+            handles.addAll(indexPartition(p).handles());
+        }
+        return handles;
+    }
+
+    // Shares the DB's block cache with this table; without one every lookup reads its block from disk.
+    public void setBlockCache(BlockCache blockCache) {
+        this.blockCache = blockCache;
+    }
+
+    // Shares the DB's pool of open table files with this table; without one every lookup opens the file.
+    public void setTableCache(TableCache tableCache) {
+        this.tableCache = tableCache;
+    }
+
+    // Serves reads from a memory mapping of the data blocks instead of file reads.
+    public void setMmapReads(boolean mmapReads) {
+        this.mmapReads = mmapReads;
+    }
+
+    // Resolves the values this table keeps in blob files.
+    public void setBlobStore(BlobStore blobStore) {
+        this.blobStore = blobStore;
+    }
+
+    // Which block reads are checked against their checksums; see ChecksumVerification.
+    public void setChecksumVerification(ChecksumVerification checksumVerification) {
+        this.checksumVerification = checksumVerification;
+    }
+
+    boolean isMmapReads() {
+        return mmapReads;
     }
 
     public void delete() {
+        BlockCache cache = blockCache;
+        if (cache != null) {
+            cache.evictTable(id);
+        }
+        TableCache files = tableCache;
+        if (files != null) {
+            files.evict(id);
+        }
+        // Readers that already hold a view keep the mapping alive; it is unmapped once they are done
+        synchronized (this) {
+            deleted = true;
+            mappedFile = null;
+        }
         File file = new File(filePath);
         if (file.exists() && !file.delete()) {
             throw new RuntimeException("Failed to delete SSTable: " + filePath);
         }
     }
 
+    private void checkNotDeleted() throws IOException {
+        if (deleted) {
+            throw new IOException("SSTable was deleted: " + filePath);
+        }
+    }
+
     public String getFilePath() {
         return filePath;
     }
 
+    // Replaces the former bloomFilterUtil field. Null for xor-filtered and partitioned tables, which have no
+    // single Bloom filter.
+    @Deprecated
+    public BloomFilterUtil getBloomFilterUtil() {
+        return filter instanceof BloomFilterUtil ? (BloomFilterUtil) filter : null;
+    }
+
+    public long getDataLength() {
+        return dataLength;
+    }
+
+    public long getEntryCount() {
+        return entryCount;
+    }
+
+    // Smallest and largest key of the table, null if it is empty
+    public String getMinKey() {
+        return minKey;
+    }
+
+    public String getMaxKey() {
+        return maxKey;
+    }
+
     // For testing
     public List<Map.Entry<String, String>> getAllEntries() throws IOException {
         List<Map.Entry<String, String>> entries = new ArrayList<>();
-        try (RandomAccessFile file = new RandomAccessFile(filePath, "r")) {
-            for (BlockInfo blockInfo : index.values()) {
-                file.seek(blockInfo.offset);
-                byte[] blockData = new byte[(int) blockInfo.length];
-                file.readFully(blockData);
-
-                try (ByteArrayInputStream bais = new ByteArrayInputStream(blockData);
-                     DataInputStream dis = new DataInputStream(bais)) {
-                    while (dis.available() > 0) {
-                        int keyLength = dis.readInt();
-                        byte[] keyBytes = new byte[keyLength];
-                        dis.readFully(keyBytes);
-                        String key = new String(keyBytes, StandardCharsets.UTF_8);
-
-                        int valueLength = dis.readInt();
-                        byte[] valueBytes = new byte[valueLength];
-                        dis.readFully(valueBytes);
-                        String value = IOUtils.deserializeValue(valueBytes);
-
-                        entries.add(new AbstractMap.SimpleEntry<>(key, value));
+        try (TableCache.Handle file = mmapReads ? null : openFile()) {
+            for (BlockInfo blockInfo : blockHandles()) {
+                Iterator<Map.Entry<String, String>> block = readDataBlock(file != null ? file.channel : null, blockInfo).iterator();
+                while (block.hasNext()) {
+                    Map.Entry<String, String> entry = block.next();
+                    if (BlobReference.isReference(entry.getValue())) {
+                        entry = new AbstractMap.SimpleImmutableEntry<>(entry.getKey(), readBlob(entry.getValue()));
                     }
+                    entries.add(entry);
                 }
             }
         }
         return entries;
     }
-}
\ No newline at end of file
+}
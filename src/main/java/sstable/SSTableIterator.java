@@ -1,20 +1,42 @@
 package sstable;
 
-import util.IOUtils;
-
 import java.io.*;
-import java.util.AbstractMap;
+import java.nio.ByteBuffer;
+import java.util.Collections;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.NoSuchElementException;
 
+// Iterates a table in key order one data block at a time. With read-ahead, runs of consecutive blocks are read
+// into one reusable buffer with a single positional read and decoded from there without entering the block
+// cache, which suits compaction and other scans that touch every block once.
 public class SSTableIterator implements Iterator<Map.Entry<String, String>> {
-    private final RandomAccessFile file;
+    private final SSTable sstable;
+    private final TableCache.Handle file;
+    private final List<BlockInfo> blocks;
+    private int nextBlock;
+    // Holds the file bytes [bufferStart, bufferStart + limit); null without read-ahead or in mmap mode
+    private ByteBuffer buffer;
+    private long bufferStart;
+    private final boolean readAhead;
+    private Iterator<Map.Entry<String, String>> current = Collections.emptyIterator();
     private boolean closed;
 
     public SSTableIterator(SSTable sstable) {
+        this(sstable, 0);
+    }
+
+    // readAheadBytes of 0 reads each block on its own through the block cache, like a point lookup.
+    public SSTableIterator(SSTable sstable, int readAheadBytes) {
         try {
-            this.file = new RandomAccessFile(sstable.getFilePath(), "r");
+            this.sstable = sstable;
+            this.file = sstable.isMmapReads() ? null : sstable.openFile();
+            this.blocks = sstable.blockHandles();
+            this.readAhead = readAheadBytes > 0;
+            if (readAhead && file != null) {
+                this.buffer = ByteBuffer.allocate(readAheadBytes).limit(0);
+            }
             this.closed = false;
         } catch (IOException e) {
             throw new RuntimeException("Failed to open SSTable file for iteration", e);
@@ -23,10 +45,16 @@ public class SSTableIterator implements Iterator<Map.Entry<String, String>> {
 
     @Override
     public boolean hasNext() {
+        if (closed) {
+            return false;
+        }
         try {
-            return !closed && file.getFilePointer() < file.length();
+            while (!current.hasNext() && nextBlock < blocks.size()) {
+                current = nextDataBlock().iterator();
+            }
+            return current.hasNext();
         } catch (IOException e) {
-            throw new RuntimeException("Error checking file pointer", e);
+            throw new RuntimeException("Failed to read next block from SSTable", e);
         }
     }
 
@@ -35,23 +63,64 @@ public class SSTableIterator implements Iterator<Map.Entry<String, String>> {
         if (!hasNext()) {
             throw new NoSuchElementException();
         }
-        try {
-            String key = IOUtils.readString(file);
-            String value = IOUtils.readString(file);
-            return new AbstractMap.SimpleEntry<>(key, value);
-        } catch (IOException e) {
-            throw new RuntimeException("Failed to read next entry from SSTable", e);
+        return current.next();
+    }
+
+    // The previous block's entries were all returned before this runs, so refilling the buffer it may have
+    // been decoded from is safe.
+    private DataBlock nextDataBlock() throws IOException {
+        BlockInfo handle = blocks.get(nextBlock);
+        if (!readAhead) {
+            nextBlock++;
+            return sstable.readDataBlock(file != null ? file.channel : null, handle);
+        }
+        if (buffer == null) {
+            nextBlock++;
+            return sstable.scanDataBlock(null, handle);
+        }
+        if (handle.offset < bufferStart || handle.offset + handle.length > bufferStart + buffer.limit()) {
+            fill();
+        }
+        nextBlock++;
+        return sstable.scanDataBlock(buffer.slice((int) (handle.offset - bufferStart), (int) handle.length), handle);
+    }
+
+    // Reads the next block and as many of the adjacent blocks after it as fit in the buffer. A block larger
+    // than the buffer grows it.
+    private void fill() throws IOException {
+        BlockInfo first = blocks.get(nextBlock);
+        if (first.length > buffer.capacity()) {
+            buffer = ByteBuffer.allocate((int) first.length);
+        }
+        long end = first.offset + first.length;
+        for (int i = nextBlock + 1; i < blocks.size(); i++) {
+            BlockInfo block = blocks.get(i);
+            if (block.offset != end || block.offset + block.length - first.offset > buffer.capacity()) {
+                break;
+            }
+            end += block.length;
+        }
+
+        buffer.clear().limit((int) (end - first.offset));
+        while (buffer.hasRemaining()) {
+            if (file.channel.read(buffer, first.offset + buffer.position()) < 0) {
+                throw new EOFException("Block at " + first.offset + " runs past the end of " + sstable.getFilePath());
+            }
         }
+        buffer.flip();
+        bufferStart = first.offset;
     }
 
     public void close() {
         if (!closed) {
             try {
-                file.close();
+                if (file != null) {
+                    file.close();
+                }
                 closed = true;
             } catch (IOException e) {
                 throw new RuntimeException("Failed to close SSTableIterator", e);
             }
         }
     }
-}
\ No newline at end of file
+}
@@ -1,23 +1,54 @@
 package sstable;
 
+import util.DBOptions;
+import util.LookupKey;
 import util.Manifest;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
 public class SSTableService {
     private final Manifest manifest;
+    // Reads the tables of one level in parallel for multiGet; null reads them on the calling thread
+    private final ExecutorService multiGetPool;
 
     public SSTableService(Manifest manifest) {
+        this(manifest, new DBOptions());
+    }
+
+    public SSTableService(Manifest manifest, DBOptions options) {
         this.manifest = manifest;
+        this.multiGetPool = options.getMultiGetThreads() > 0
+                ? Executors.newFixedThreadPool(options.getMultiGetThreads(), task -> {
+                    Thread thread = new Thread(task, "multiget");
+                    thread.setDaemon(true);
+                    return thread;
+                })
+                : null;
     }
 
+    // Every level-0 table may hold the key, newest first; each deeper level has at most one candidate.
+    // The key is encoded and hashed once for all of them.
     public String get(String key) {
+        LookupKey lookupKey = new LookupKey(key);
         manifest.getLock().readLock().lock();
         try {
-            for (int level = 0; level <= manifest.maxLevel(); level++) {
-                for (SSTable sstable : manifest.getSSTables(level)) {
-                    String value = sstable.get(key);
-                    if (value != null) {
-                        return value;
-                    }
+            for (SSTable sstable : manifest.getLevel0SSTables()) {
+                String value = sstable.get(lookupKey);
+                if (value != null) {
+                    return value;
+                }
+            }
+            int maxLevel = manifest.maxLevel();
+            for (int level = 1; level <= maxLevel; level++) {
+                SSTable sstable = manifest.findSSTable(level, key);
+                String value = sstable != null ? sstable.get(lookupKey) : null;
+                if (value != null) {
+                    return value;
                 }
             }
             return null;
@@ -25,4 +56,85 @@ public class SSTableService {
             manifest.getLock().readLock().unlock();
         }
     }
-}
\ No newline at end of file
+
+    // Fills in values[i] for each of the keys, sorted and distinct, that a table holds, under one acquisition
+    // of the manifest lock. Keys whose value is already set are skipped. Each table is searched once for the
+    // keys it may hold, and the tables of a level hold disjoint runs of the keys, so they can be read in parallel.
+    public void multiGet(List<String> keys, String[] values) {
+        List<LookupKey> lookupKeys = new ArrayList<>(keys.size());
+        for (String key : keys) {
+            lookupKeys.add(new LookupKey(key));
+        }
+        manifest.getLock().readLock().lock();
+        try {
+            for (SSTable sstable : manifest.getLevel0SSTables()) {
+                sstable.multiGet(lookupKeys, values, 0, keys.size());
+            }
+            int maxLevel = manifest.maxLevel();
+            for (int level = 1; level <= maxLevel; level++) {
+                List<Run> runs = new ArrayList<>();
+                int i = 0;
+                while (i < keys.size()) {
+                    SSTable sstable = values[i] == null ? manifest.findSSTable(level, keys.get(i)) : null;
+                    if (sstable == null) {
+                        i++;
+                        continue;
+                    }
+                    int end = i + 1;
+                    while (end < keys.size() && keys.get(end).compareTo(sstable.getMaxKey()) <= 0) {
+                        end++;
+                    }
+                    runs.add(new Run(sstable, i, end));
+                    i = end;
+                }
+                readLevel(runs, lookupKeys, values);
+            }
+        } finally {
+            manifest.getLock().readLock().unlock();
+        }
+    }
+
+    // The keys [from, to) that fall in the key range of one table
+    private static final class Run {
+        final SSTable sstable;
+        final int from;
+        final int to;
+
+        Run(SSTable sstable, int from, int to) {
+            this.sstable = sstable;
+            this.from = from;
+            this.to = to;
+        }
+    }
+
+    // Runs don't overlap, so parallel reads fill in disjoint slots of values.
+    private void readLevel(List<Run> runs, List<LookupKey> keys, String[] values) {
+        if (multiGetPool == null || runs.size() < 2) {
+            for (Run run : runs) {
+                run.sstable.multiGet(keys, values, run.from, run.to);
+            }
+            return;
+        }
+        List<Future<?>> reads = new ArrayList<>();
+        for (Run run : runs) {
+            reads.add(multiGetPool.submit(() -> run.sstable.multiGet(keys, values, run.from, run.to)));
+        }
+        try {
+            for (Future<?> read : reads) {
+                read.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while reading SSTables", e);
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause()
+                    : new RuntimeException("Failed to read SSTables", e.getCause());
+        }
+    }
+
+    public void close() {
+        if (multiGetPool != null) {
+            multiGetPool.shutdown();
+        }
+    }
+}
@@ -0,0 +1,282 @@
+package sstable;
+
+import util.CompressionType;
+import util.DBOptions;
+import util.FilterType;
+import util.IOUtils;
+import util.KeyFilter;
+import util.KeyHash;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.CRC32C;
+
+// Writes one table from entries added in key order, as prefix-compressed data blocks followed by the metadata
+// blocks and footer. Finished blocks are appended to one reusable buffer that goes to the file in large
+// sequential writes, and the file is fsynced once by finish. Closing a builder that was not finished deletes
+// the partial file.
+//
+// The filters are built last so that they can be sized for the number of keys actually written; until then
+// only the 64-bit hash of each key is kept.
+final class TableBuilder implements Closeable {
+    private static final int WRITE_BUFFER_SIZE = 1024 * 1024;
+    private static final String TOMBSTONE = "<TOMBSTONE>";
+
+    private final String filePath;
+    private final FileChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocate(WRITE_BUFFER_SIZE);
+    // Bytes already handed to the channel; the file offset of the next write is this plus buffer.position()
+    private long written;
+    private final CRC32C crc = new CRC32C();
+    private final CompressionType compression;
+    private final FilterType filterType;
+    private final int bloomBitsPerKey;
+    private final BlockBuilder blockBuilder = new BlockBuilder();
+    private final PartitionedIndexBuilder indexBuilder;
+    // Receives values of at least blobValueThreshold bytes; null, and the threshold 0, to keep values inline
+    private final BlobStore.Writer blobs;
+    private final int blobValueThreshold;
+    private long[] hashes = new long[1024];
+    private int hashCount;
+    // Separator of the block being built, null until it holds a key
+    private byte[] blockSeparator;
+    private byte[] lastKey;
+    private String minKey;
+    private String maxKey;
+    private long entryCount;
+    private long entryBytes;
+    private boolean finished;
+
+    // Creates the file, replacing any previous one at filePath. Tables for the given level use that level's
+    // settings from options.
+    TableBuilder(String filePath, DBOptions options, int level) throws IOException {
+        this(filePath, options, level, null);
+    }
+
+    TableBuilder(String filePath, DBOptions options, int level, BlobStore.Writer blobs) throws IOException {
+        this.filePath = filePath;
+        this.blobs = blobs;
+        this.blobValueThreshold = blobs != null ? options.getBlobValueThreshold() : 0;
+        this.compression = options.getCompression(level);
+        this.filterType = options.getFilterType(level);
+        this.bloomBitsPerKey = options.getBloomBitsPerKey();
+        this.indexBuilder = new PartitionedIndexBuilder(options.getMetadataPartitionSize());
+        this.channel = FileChannel.open(Paths.get(filePath), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+    }
+
+    void add(String key, String value) throws IOException {
+        byte[] valueBytes = IOUtils.serializeValue(value);
+        // Tombstones stay inline however small the threshold, so that compaction can see and drop them
+        if (blobValueThreshold > 0 && valueBytes.length >= blobValueThreshold && !TOMBSTONE.equals(value)) {
+            valueBytes = blobs.add(valueBytes, valueBytes.length).encode();
+        }
+        add(key, valueBytes);
+    }
+
+    // Adds an entry whose value is already in a blob file
+    void addReference(String key, String reference) throws IOException {
+        add(key, BlobReference.parse(reference).encode());
+    }
+
+    private void add(String key, byte[] valueBytes) throws IOException {
+        byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+
+        if (blockSeparator != null && blockBuilder.estimatedSize() + keyBytes.length + valueBytes.length > SSTable.BLOCK_SIZE) {
+            indexBuilder.add(blockSeparator, writeDataBlock(), hashCount);
+            blockSeparator = null;
+        }
+        if (blockSeparator == null) {
+            // Lookups below minKey never reach the index, so the first block needs no separator bytes
+            blockSeparator = lastKey == null ? new byte[0] : BlockIndex.shortestSeparator(lastKey, keyBytes);
+        }
+        blockBuilder.add(keyBytes, valueBytes);
+        lastKey = keyBytes;
+
+        if (hashCount == hashes.length) {
+            hashes = Arrays.copyOf(hashes, hashCount * 2);
+        }
+        hashes[hashCount++] = KeyHash.hash(keyBytes, 0, keyBytes.length);
+        if (minKey == null) {
+            minKey = key;
+        }
+        maxKey = key;
+        entryCount++;
+        entryBytes += 8 + keyBytes.length + valueBytes.length;
+    }
+
+    // Uncompressed bytes of the entries added so far, counting a 4-byte length for each key and value
+    long entryBytes() {
+        return entryBytes;
+    }
+
+    // Writes the last data block and the metadata, fsyncs and closes the file, and returns the open table.
+    SSTable finish() throws IOException {
+        if (blockSeparator != null) {
+            indexBuilder.add(blockSeparator, writeDataBlock(), hashCount);
+            blockSeparator = null;
+        }
+        long dataLength = offset();
+        List<BlockIndex> partitions = indexBuilder.finish(hashCount);
+        KeyFilter filter = null;
+        long[] filterPartitions = null;
+        BlockIndex index;
+
+        ByteArrayOutputStream filterBlock = new ByteArrayOutputStream();
+        filterBlock.write(filterType.id);
+        if (partitions.size() == 1) {
+            // Too small to be worth partitioning
+            index = partitions.get(0);
+            filter = filterType.build(hashes, hashCount, bloomBitsPerKey);
+            filter.writeTo(filterBlock);
+        } else {
+            // Each partition's filter and index block, then a top-level index whose entries point to the
+            // index blocks and a top-level filter block listing the filters in the same order
+            BlockIndex.Builder topIndex = new BlockIndex.Builder();
+            DataOutputStream filterOut = new DataOutputStream(filterBlock);
+            filterPartitions = new long[2 * partitions.size()];
+            for (int p = 0; p < partitions.size(); p++) {
+                int start = indexBuilder.hashStart(p);
+                int end = indexBuilder.hashEnd(p);
+                ByteArrayOutputStream partitionFilter = new ByteArrayOutputStream();
+                filterType.build(Arrays.copyOfRange(hashes, start, end), end - start, bloomBitsPerKey)
+                        .writeTo(partitionFilter);
+                BlockInfo filterHandle = writeBlock(partitionFilter);
+                filterOut.writeLong(filterHandle.offset);
+                filterOut.writeLong(filterHandle.length);
+                filterPartitions[2 * p] = filterHandle.offset;
+                filterPartitions[2 * p + 1] = filterHandle.length;
+
+                ByteArrayOutputStream partitionIndex = new ByteArrayOutputStream();
+                partitions.get(p).writeTo(new DataOutputStream(partitionIndex));
+                BlockInfo indexHandle = writeBlock(partitionIndex);
+                topIndex.add(partitions.get(p).separator(0), indexHandle.offset, indexHandle.length);
+            }
+            index = topIndex.build();
+        }
+        writeMetadata(dataLength, filterBlock, index, filterPartitions == null ? 0 : partitions.size());
+
+        flushBuffer();
+        channel.force(true);
+        channel.close();
+        finished = true;
+        return new SSTable(filePath, filter, index, filterPartitions, filterType, minKey, maxKey, dataLength,
+                entryCount, Footer.FORMAT_VERSION);
+    }
+
+    // Abandons an unfinished table
+    @Override
+    public void close() throws IOException {
+        if (finished) {
+            return;
+        }
+        finished = true;
+        try {
+            channel.close();
+        } finally {
+            Files.deleteIfExists(Paths.get(filePath));
+        }
+    }
+
+    // Appends the filter, index and properties blocks followed by the footer. For a partitioned table the
+    // partitions were written first, and filterBlock and index are the top-level blocks over them.
+    private void writeMetadata(long dataLength, ByteArrayOutputStream filterBlock, BlockIndex index,
+                               int partitions) throws IOException {
+        BlockInfo filterHandle = writeBlock(filterBlock);
+
+        ByteArrayOutputStream indexBlock = new ByteArrayOutputStream();
+        index.writeTo(new DataOutputStream(indexBlock));
+        BlockInfo indexHandle = writeBlock(indexBlock);
+
+        ByteArrayOutputStream propertiesBlock = new ByteArrayOutputStream();
+        DataOutputStream propertiesOut = new DataOutputStream(propertiesBlock);
+        propertiesOut.writeLong(entryCount);
+        propertiesOut.writeLong(dataLength);
+        if (entryCount > 0) {
+            IOUtils.writeString(propertiesOut, minKey);
+            IOUtils.writeString(propertiesOut, maxKey);
+        }
+        propertiesOut.writeInt(partitions);
+        BlockInfo propertiesHandle = writeBlock(propertiesBlock);
+
+        write(new Footer(filterHandle, indexHandle, propertiesHandle, Footer.FORMAT_VERSION).encode());
+    }
+
+    // Layout: [block contents, possibly compressed][compression type: 1][CRC32C of the preceding bytes: 4].
+    // A block is kept uncompressed when the codec saves less than 1/8 of it, since reading it back would cost
+    // more than the space is worth.
+    private BlockInfo writeDataBlock() throws IOException {
+        long offset = offset();
+        byte[] block = blockBuilder.finish();
+        blockBuilder.reset();
+        CompressionType type = CompressionType.NONE;
+        if (compression != CompressionType.NONE) {
+            byte[] compressed = compression.codec.compress(block, 0, block.length);
+            if (compressed.length < block.length - block.length / 8) {
+                block = compressed;
+                type = compression;
+            }
+        }
+        crc.reset();
+        crc.update(block);
+        crc.update(type.id);
+        write(block);
+        ensureRemaining(5);
+        buffer.put(type.id).putInt((int) crc.getValue());
+        return new BlockInfo(offset, block.length + 5);
+    }
+
+    // Layout: [contents][CRC32C of contents: 4]
+    private BlockInfo writeBlock(ByteArrayOutputStream block) throws IOException {
+        long offset = offset();
+        byte[] contents = block.toByteArray();
+        crc.reset();
+        crc.update(contents);
+        write(contents);
+        ensureRemaining(4);
+        buffer.putInt((int) crc.getValue());
+        return new BlockInfo(offset, contents.length + 4);
+    }
+
+    private long offset() {
+        return written + buffer.position();
+    }
+
+    // Blocks larger than the buffer, such as the filter of a large table, bypass it
+    private void write(byte[] bytes) throws IOException {
+        if (bytes.length > buffer.capacity()) {
+            flushBuffer();
+            ByteBuffer wrapped = ByteBuffer.wrap(bytes);
+            while (wrapped.hasRemaining()) {
+                written += channel.write(wrapped);
+            }
+            return;
+        }
+        ensureRemaining(bytes.length);
+        buffer.put(bytes);
+    }
+
+    private void ensureRemaining(int length) throws IOException {
+        if (buffer.remaining() < length) {
+            flushBuffer();
+        }
+    }
+
+    private void flushBuffer() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            written += channel.write(buffer);
+        }
+        buffer.clear();
+    }
+}
@@ -0,0 +1,159 @@
+package sstable;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+// Keeps up to maxOpenFiles table files open across lookups, closing the least recently used one beyond that.
+// Reads go through positional FileChannel reads, which don't move a shared file pointer, so any number of
+// threads can read one table through the same channel without locking.
+//
+// Handles are reference counted: a channel evicted while a reader still holds it is closed on its last
+// release. Files pinned by long scans can therefore briefly push the open count past the limit.
+public class TableCache {
+    private final int maxOpenFiles;
+    private final LinkedHashMap<Long, Handle> open = new LinkedHashMap<>(64, 0.75f, true);
+
+    public TableCache(int maxOpenFiles) {
+        if (maxOpenFiles <= 0) {
+            throw new IllegalArgumentException("maxOpenFiles must be positive: " + maxOpenFiles);
+        }
+        this.maxOpenFiles = maxOpenFiles;
+    }
+
+    // Callers must close the returned handle, typically with try-with-resources.
+    Handle acquire(long tableId, String filePath) throws IOException {
+        synchronized (this) {
+            Handle handle = open.get(tableId);
+            if (handle != null && handle.channel.isOpen()) {
+                handle.refs++;
+                return handle;
+            }
+            if (handle != null) {
+                // Closed underneath us, e.g. by an interrupted reader; reopen it below
+                open.remove(tableId);
+            }
+        }
+
+        // Opened outside the lock so a slow open doesn't stall lookups on other tables
+        Handle opened = new Handle(openChannel(filePath), this);
+        List<Handle> evicted = new ArrayList<>();
+        Handle handle;
+        synchronized (this) {
+            handle = open.get(tableId);
+            if (handle == null || !handle.channel.isOpen()) {
+                handle = opened;
+                open.put(tableId, handle);
+                handle.refs++;
+                Iterator<Handle> eldest = open.values().iterator();
+                while (open.size() > maxOpenFiles) {
+                    Handle victim = eldest.next();
+                    eldest.remove();
+                    victim.evicted = true;
+                    if (victim.refs == 0) {
+                        evicted.add(victim);
+                    }
+                }
+            } else {
+                handle.refs++;
+                evicted.add(opened); // lost the race to another opener
+            }
+        }
+        for (Handle victim : evicted) {
+            closeChannel(victim.channel);
+        }
+        return handle;
+    }
+
+    private void release(Handle handle) {
+        boolean close;
+        synchronized (this) {
+            handle.refs--;
+            close = handle.refs == 0 && handle.evicted;
+        }
+        if (close) {
+            closeChannel(handle.channel);
+        }
+    }
+
+    // Called when a table is deleted, so its file descriptor doesn't outlive the file.
+    void evict(long tableId) {
+        Handle handle;
+        synchronized (this) {
+            handle = open.remove(tableId);
+            if (handle == null) {
+                return;
+            }
+            handle.evicted = true;
+            if (handle.refs > 0) {
+                return;
+            }
+        }
+        closeChannel(handle.channel);
+    }
+
+    public synchronized int openFiles() {
+        return open.size();
+    }
+
+    public void close() {
+        List<Handle> idle = new ArrayList<>();
+        synchronized (this) {
+            for (Handle handle : open.values()) {
+                handle.evicted = true;
+                if (handle.refs == 0) {
+                    idle.add(handle);
+                }
+            }
+            open.clear();
+        }
+        for (Handle handle : idle) {
+            closeChannel(handle.channel);
+        }
+    }
+
+    // A channel used by one caller only, for tables that are not registered with a table cache.
+    static Handle openUncached(String filePath) throws IOException {
+        return new Handle(openChannel(filePath), null);
+    }
+
+    private static FileChannel openChannel(String filePath) throws IOException {
+        return FileChannel.open(Paths.get(filePath), StandardOpenOption.READ);
+    }
+
+    private static void closeChannel(FileChannel channel) {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            System.err.println("Failed to close table file: " + e.getMessage());
+        }
+    }
+
+    static final class Handle implements Closeable {
+        final FileChannel channel;
+        private final TableCache owner;
+        // Guarded by owner
+        private int refs;
+        private boolean evicted;
+
+        private Handle(FileChannel channel, TableCache owner) {
+            this.channel = channel;
+            this.owner = owner;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (owner == null) {
+                channel.close();
+            } else {
+                owner.release(this);
+            }
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package util;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+// Bloom filter whose probes for a key all land in one 64-byte block, so a lookup touches a single cache
+// line instead of one per probe. The upper half of the key hash picks the block and the lower half is
+// remixed for the 9-bit bit positions within it. Confining probes to a block costs a little accuracy:
+// at 10 bits per key about 0.95% false positives instead of the 0.82% of a standard bloom filter.
+// Layout: [probes: 1][block count: 4][block words: 8 per block]
+public class BlockedBloomFilter implements KeyFilter {
+    private static final int BLOCK_BITS = 512;
+    private static final int BLOCK_WORDS = BLOCK_BITS / 64;
+    private static final int MAX_PROBES = 16;
+
+    private final long[] words;
+    private final int blockCount;
+    private final int probes;
+
+    private BlockedBloomFilter(long[] words, int blockCount, int probes) {
+        this.words = words;
+        this.blockCount = blockCount;
+        this.probes = probes;
+    }
+
+    // Sized at bitsPerKey bits for each of the first count hashes, which are all added.
+    public static BlockedBloomFilter build(long[] hashes, int count, int bitsPerKey) {
+        if (bitsPerKey < 1) {
+            throw new IllegalArgumentException("bitsPerKey must be positive: " + bitsPerKey);
+        }
+        int blockCount = (int) Math.max(1, ((long) count * bitsPerKey + BLOCK_BITS - 1) / BLOCK_BITS);
+        int probes = (int) Math.max(1, Math.min(MAX_PROBES, Math.round(bitsPerKey * Math.log(2))));
+        BlockedBloomFilter filter = new BlockedBloomFilter(new long[blockCount * BLOCK_WORDS], blockCount, probes);
+        for (int i = 0; i < count; i++) {
+            filter.add(hashes[i]);
+        }
+        return filter;
+    }
+
+    private void add(long hash) {
+        int base = blockOf(hash) * BLOCK_WORDS;
+        int h = (int) hash;
+        for (int i = 0; i < probes; i++) {
+            int bit = h >>> 23;
+            words[base + (bit >>> 6)] |= 1L << bit;
+            h *= 0x9E3779B9;
+        }
+    }
+
+    @Override
+    public boolean mightContain(String key) {
+        return mightContain(KeyHash.hash(key));
+    }
+
+    @Override
+    public boolean mightContain(LookupKey key) {
+        return mightContain(key.hash);
+    }
+
+    public boolean mightContain(long hash) {
+        int base = blockOf(hash) * BLOCK_WORDS;
+        int h = (int) hash;
+        for (int i = 0; i < probes; i++) {
+            int bit = h >>> 23;
+            if ((words[base + (bit >>> 6)] & 1L << bit) == 0) {
+                return false;
+            }
+            h *= 0x9E3779B9;
+        }
+        return true;
+    }
+
+    // Maps the upper 32 bits of the hash onto [0, blockCount) without a division
+    private int blockOf(long hash) {
+        return (int) (((hash >>> 32) * blockCount) >>> 32);
+    }
+
+    @Override
+    public void writeTo(OutputStream out) throws IOException {
+        DataOutputStream data = new DataOutputStream(out);
+        data.writeByte(probes);
+        data.writeInt(blockCount);
+        ByteBuffer buffer = ByteBuffer.allocate(words.length * 8);
+        buffer.asLongBuffer().put(words);
+        data.write(buffer.array());
+        data.flush();
+    }
+
+    public static BlockedBloomFilter readFrom(ByteBuffer in) throws IOException {
+        int probes = in.get();
+        int blockCount = in.getInt();
+        if (probes < 1 || probes > MAX_PROBES || blockCount < 1 || in.remaining() != (long) blockCount * BLOCK_BITS / 8) {
+            throw new IOException("Corrupt blocked bloom filter: " + probes + " probes, " + blockCount + " blocks");
+        }
+        long[] words = new long[blockCount * BLOCK_WORDS];
+        in.asLongBuffer().get(words);
+        return new BlockedBloomFilter(words, blockCount, probes);
+    }
+}
@@ -3,11 +3,19 @@ package util;
 import com.google.common.hash.BloomFilter;
 import com.google.common.hash.Funnels;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.nio.charset.StandardCharsets;
 
-public class BloomFilterUtil {
+// Guava bloom filter, as stored in tables written before the filter block carried a FilterType.
+public class BloomFilterUtil implements KeyFilter {
     private final BloomFilter<String> bloomFilter;
 
+    private BloomFilterUtil(BloomFilter<String> bloomFilter) {
+        this.bloomFilter = bloomFilter;
+    }
+
     public BloomFilterUtil(long expectedInsertions, double fpp) {
         this.bloomFilter = BloomFilter.create(
                 Funnels.stringFunnel(StandardCharsets.UTF_8),
@@ -16,11 +24,31 @@ public class BloomFilterUtil {
         );
     }
 
+    // Sized for the given number of keys at bitsPerKey bits each, with the false-positive rate that
+    // an optimally hashed filter of that density achieves: about 1% at 10 bits per key.
+    public static BloomFilterUtil withBitsPerKey(long keyCount, int bitsPerKey) {
+        if (bitsPerKey < 1) {
+            throw new IllegalArgumentException("bitsPerKey must be positive: " + bitsPerKey);
+        }
+        double fpp = Math.exp(-bitsPerKey * Math.log(2) * Math.log(2));
+        return new BloomFilterUtil(Math.max(1, keyCount), fpp);
+    }
+
     public void add(String key) {
         bloomFilter.put(key);
     }
 
+    @Override
     public boolean mightContain(String key) {
         return bloomFilter.mightContain(key);
     }
-}
\ No newline at end of file
+
+    @Override
+    public void writeTo(OutputStream out) throws IOException {
+        bloomFilter.writeTo(out);
+    }
+
+    public static BloomFilterUtil readFrom(InputStream in) throws IOException {
+        return new BloomFilterUtil(BloomFilter.readFrom(in, Funnels.stringFunnel(StandardCharsets.UTF_8)));
+    }
+}
@@ -0,0 +1,15 @@
+package util;
+
+// When SSTable blocks are checked against their CRC32C as they are read from the file or the mapping.
+// Blocks served from the block cache were checked, if at all, when they were loaded. The metadata blocks
+// read when a table is opened are always checked.
+public enum ChecksumVerification {
+    // Never check; corruption surfaces as garbage or decoding errors
+    NONE,
+    // Check blocks read by compaction and full scans only, leaving point lookups unchecked
+    COMPACTION_ONLY,
+    // Check blocks as they enter the block cache; blocks read without being cached are not checked
+    ON_CACHE_LOAD,
+    // Check every block read from the file or the mapping
+    ALWAYS
+}
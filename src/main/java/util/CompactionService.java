@@ -2,6 +2,7 @@ package util;
 
 import memtable.Memtable;
 import memtable.MemtableService;
+import sstable.BlobStore;
 import sstable.SSTable;
 
 import java.io.IOException;
@@ -15,13 +16,21 @@ import java.util.concurrent.locks.Lock;
 public class CompactionService {
     private final MemtableService memtableService;
     private final Manifest manifest;
+    private final DBOptions options;
     private final ScheduledExecutorService memtableFlusher;
     private final ScheduledExecutorService compactionRunner;
 
     public CompactionService(MemtableService memtableService,
                              Manifest manifest) {
+        this(memtableService, manifest, new DBOptions());
+    }
+
+    public CompactionService(MemtableService memtableService,
+                             Manifest manifest,
+                             DBOptions options) {
         this.memtableService = memtableService;
         this.manifest = manifest;
+        this.options = options;
 
         memtableFlusher = Executors.newSingleThreadScheduledExecutor();
         memtableFlusher.scheduleAtFixedRate(
@@ -67,8 +76,10 @@ public class CompactionService {
 
         System.out.println("Flushing memtables...");
 
-        SSTable sstable = createSSTableFromMemtable(mem);
-        updateFlushQueueAndManifest(mem, sstable);
+        try (BlobStore.Writer blobs = manifest.getBlobStore().newWriter()) {
+            SSTable sstable = createSSTableFromMemtable(mem, blobs);
+            updateFlushQueueAndManifest(mem, sstable, blobs);
+        }
     }
 
     private Memtable getFlushableMemtable() {
@@ -84,11 +95,11 @@ public class CompactionService {
         }
     }
 
-    private SSTable createSSTableFromMemtable(Memtable mem) throws IOException {
-        return SSTable.createSSTableFromMemtable(mem);
+    private SSTable createSSTableFromMemtable(Memtable mem, BlobStore.Writer blobs) throws IOException {
+        return SSTable.createSSTableFromMemtable(mem, options, 0, blobs);
     }
 
-    private void updateFlushQueueAndManifest(Memtable mem, SSTable sstable) throws IOException {
+    private void updateFlushQueueAndManifest(Memtable mem, SSTable sstable, BlobStore.Writer blobs) throws IOException {
         Lock memtableWriteLock = memtableService.getLock().writeLock();
         Lock manifestWriteLock = manifest.getLock().writeLock();
 
@@ -96,7 +107,7 @@ public class CompactionService {
         manifestWriteLock.lock();
         try {
             memtableService.removeFlushableMemtable(mem); // Modify flushQueue
-            manifest.addSSTable(0, sstable); // Update manifest
+            manifest.addSSTable(0, sstable, blobs); // Update manifest
         } finally {
             manifestWriteLock.unlock();
             memtableWriteLock.unlock();
@@ -113,9 +124,11 @@ public class CompactionService {
                 continue;
             }
 
-            List<SSTable> newTables = compactTables(tablesToCompact);
+            try (BlobStore.Writer blobs = manifest.getBlobStore().newWriter()) {
+                List<SSTable> newTables = compactTables(tablesToCompact, level + 1, blobs);
 
-            updateManifest(level, tablesToCompact, newTables);
+                updateManifest(level, tablesToCompact, newTables, blobs);
+            }
         }
     }
 
@@ -138,15 +151,17 @@ public class CompactionService {
         }
     }
 
-    private List<SSTable> compactTables(List<SSTable> tablesToMerge) throws IOException {
-        return SSTable.sortedRun("./data", tablesToMerge);
+    private List<SSTable> compactTables(List<SSTable> tablesToMerge, int outputLevel,
+                                        BlobStore.Writer blobs) throws IOException {
+        return SSTable.sortedRun("./data", tablesToMerge, options, outputLevel, blobs);
     }
 
-    private void updateManifest(int level, List<SSTable> oldTables, List<SSTable> newTables) throws IOException {
+    private void updateManifest(int level, List<SSTable> oldTables, List<SSTable> newTables,
+                                BlobStore.Writer blobs) throws IOException {
         Lock writeLock = manifest.getLock().writeLock();
         writeLock.lock();
         try {
-            manifest.replace(level, newTables);
+            manifest.replace(level, oldTables, newTables, blobs);
             for (SSTable table : oldTables) {
                 table.delete();
             }
@@ -0,0 +1,10 @@
+package util;
+
+import java.io.IOException;
+
+// Compresses and decompresses whole blocks. Output is self-describing, so decompress needs no size hint.
+public interface CompressionCodec {
+    byte[] compress(byte[] input, int offset, int length);
+
+    byte[] decompress(byte[] input, int offset, int length) throws IOException;
+}
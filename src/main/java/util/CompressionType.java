@@ -0,0 +1,38 @@
+package util;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+// Codecs that can be recorded in a block trailer. The id is persisted, so existing ids must never change.
+public enum CompressionType {
+    NONE((byte) 0, new CompressionCodec() {
+        @Override
+        public byte[] compress(byte[] input, int offset, int length) {
+            return Arrays.copyOfRange(input, offset, offset + length);
+        }
+
+        @Override
+        public byte[] decompress(byte[] input, int offset, int length) {
+            return Arrays.copyOfRange(input, offset, offset + length);
+        }
+    }),
+    DEFLATE((byte) 1, new DeflateCodec()),
+    LZ((byte) 2, new LZCodec());
+
+    public final byte id;
+    public final CompressionCodec codec;
+
+    CompressionType(byte id, CompressionCodec codec) {
+        this.id = id;
+        this.codec = codec;
+    }
+
+    public static CompressionType fromId(byte id) throws IOException {
+        for (CompressionType type : values()) {
+            if (type.id == id) {
+                return type;
+            }
+        }
+        throw new IOException("Unknown compression type: " + id);
+    }
+}
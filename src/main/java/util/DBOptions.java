@@ -0,0 +1,227 @@
+package util;
+
+import java.util.HashMap;
+import java.util.Map;
+
+// Tunables shared by the memtable, WAL and SSTable layers of one DB instance.
+public class DBOptions {
+    private boolean offHeapMemtable = false;
+    private SyncMode syncMode = SyncMode.BUFFERED;
+    private long syncIntervalMillis = 1000L;
+    private long syncIntervalBytes = 1024 * 1024L;
+    private int recoveryThreads = Runtime.getRuntime().availableProcessors();
+    private CompressionType compression = CompressionType.LZ;
+    private final Map<Integer, CompressionType> levelCompression = new HashMap<>();
+    private long blockCacheCapacity = 8 * 1024 * 1024L;
+    private int maxOpenFiles = 1000;
+    private boolean mmapReads = false;
+    private int bloomBitsPerKey = 10;
+    private FilterType filterType = FilterType.BLOCKED_BLOOM;
+    private final Map<Integer, FilterType> levelFilterType = new HashMap<>();
+    private long targetFileSize = 4 * 1024 * 1024L;
+    private int metadataPartitionSize = 0;
+    private int compactionReadaheadSize = 2 * 1024 * 1024;
+    private int blobValueThreshold = 0;
+    private double blobGarbageRatio = 0.5;
+    private int multiGetThreads = 0;
+    private ChecksumVerification checksumVerification = ChecksumVerification.ON_CACHE_LOAD;
+
+    public boolean isOffHeapMemtable() {
+        return offHeapMemtable;
+    }
+
+    // Stores memtable keys and values in off-heap arena chunks instead of on-heap Strings.
+    public DBOptions setOffHeapMemtable(boolean offHeapMemtable) {
+        this.offHeapMemtable = offHeapMemtable;
+        return this;
+    }
+
+    public SyncMode getSyncMode() {
+        return syncMode;
+    }
+
+    // Default durability for writes that don't override it through WriteOptions.
+    public DBOptions setSyncMode(SyncMode syncMode) {
+        this.syncMode = syncMode;
+        return this;
+    }
+
+    public long getSyncIntervalMillis() {
+        return syncIntervalMillis;
+    }
+
+    // PERIODIC mode fsyncs the WAL at least this often while it holds unsynced writes.
+    public DBOptions setSyncIntervalMillis(long syncIntervalMillis) {
+        this.syncIntervalMillis = syncIntervalMillis;
+        return this;
+    }
+
+    public long getSyncIntervalBytes() {
+        return syncIntervalBytes;
+    }
+
+    // PERIODIC mode also fsyncs the WAL once this many bytes were written since the last fsync.
+    public DBOptions setSyncIntervalBytes(long syncIntervalBytes) {
+        this.syncIntervalBytes = syncIntervalBytes;
+        return this;
+    }
+
+    public int getRecoveryThreads() {
+        return recoveryThreads;
+    }
+
+    // Upper bound on the number of WAL files replayed in parallel when the DB opens.
+    public DBOptions setRecoveryThreads(int recoveryThreads) {
+        this.recoveryThreads = recoveryThreads;
+        return this;
+    }
+
+    // Codec for data blocks of tables written to this level, falling back to the DB-wide codec.
+    public CompressionType getCompression(int level) {
+        return levelCompression.getOrDefault(level, compression);
+    }
+
+    // Codec for data blocks of every level without its own setting.
+    public DBOptions setCompression(CompressionType compression) {
+        this.compression = compression;
+        return this;
+    }
+
+    // Overrides the codec for one level, e.g. NONE for the short-lived level 0 and DEFLATE for the largest level.
+    public DBOptions setCompression(int level, CompressionType compression) {
+        levelCompression.put(level, compression);
+        return this;
+    }
+
+    public long getBlockCacheCapacity() {
+        return blockCacheCapacity;
+    }
+
+    // Bytes of decoded data blocks kept in memory across all tables; 0 disables the block cache.
+    public DBOptions setBlockCacheCapacity(long blockCacheCapacity) {
+        this.blockCacheCapacity = blockCacheCapacity;
+        return this;
+    }
+
+    public int getMaxOpenFiles() {
+        return maxOpenFiles;
+    }
+
+    // Number of SSTable files kept open between lookups; 0 opens the file on every lookup instead.
+    public DBOptions setMaxOpenFiles(int maxOpenFiles) {
+        this.maxOpenFiles = maxOpenFiles;
+        return this;
+    }
+
+    public boolean isMmapReads() {
+        return mmapReads;
+    }
+
+    // Serves SSTable reads from memory-mapped data blocks, for datasets that fit in RAM.
+    public DBOptions setMmapReads(boolean mmapReads) {
+        this.mmapReads = mmapReads;
+        return this;
+    }
+
+    public int getBloomBitsPerKey() {
+        return bloomBitsPerKey;
+    }
+
+    // Bloom filter bits per key of each new table; 10 bits gives about a 1% false-positive rate.
+    public DBOptions setBloomBitsPerKey(int bloomBitsPerKey) {
+        this.bloomBitsPerKey = bloomBitsPerKey;
+        return this;
+    }
+
+    // Filter of tables written to this level, falling back to the DB-wide filter.
+    public FilterType getFilterType(int level) {
+        return levelFilterType.getOrDefault(level, filterType);
+    }
+
+    // Filter of every level without its own setting.
+    public DBOptions setFilterType(FilterType filterType) {
+        this.filterType = filterType;
+        return this;
+    }
+
+    // Overrides the filter for one level, e.g. XOR8 for the largest levels, which hold most of the filter memory.
+    public DBOptions setFilterType(int level, FilterType filterType) {
+        levelFilterType.put(level, filterType);
+        return this;
+    }
+
+    public long getTargetFileSize() {
+        return targetFileSize;
+    }
+
+    // Compaction starts a new output table once the current one holds about this many bytes of entries.
+    public DBOptions setTargetFileSize(long targetFileSize) {
+        this.targetFileSize = targetFileSize;
+        return this;
+    }
+
+    public int getMetadataPartitionSize() {
+        return metadataPartitionSize;
+    }
+
+    // Splits the index of each table into partitions of about this many bytes, each with its own filter,
+    // behind a small top-level index. Partitions are loaded through the block cache, so only the hot ones of
+    // large tables stay in memory. 0 keeps every table's index and filter whole and resident.
+    public DBOptions setMetadataPartitionSize(int metadataPartitionSize) {
+        this.metadataPartitionSize = metadataPartitionSize;
+        return this;
+    }
+
+    public int getCompactionReadaheadSize() {
+        return compactionReadaheadSize;
+    }
+
+    // Compaction reads each input table in sequential chunks of up to this many bytes, bypassing the block cache.
+    // 0 reads them block by block through the block cache instead.
+    public DBOptions setCompactionReadaheadSize(int compactionReadaheadSize) {
+        this.compactionReadaheadSize = compactionReadaheadSize;
+        return this;
+    }
+
+    public int getBlobValueThreshold() {
+        return blobValueThreshold;
+    }
+
+    // Values of at least this many bytes are written to blob files, leaving only a reference in the SSTables,
+    // so that compaction doesn't rewrite them at every level. 0 keeps every value in the SSTables.
+    public DBOptions setBlobValueThreshold(int blobValueThreshold) {
+        this.blobValueThreshold = blobValueThreshold;
+        return this;
+    }
+
+    public double getBlobGarbageRatio() {
+        return blobGarbageRatio;
+    }
+
+    // Compaction copies the live values out of a blob file once this fraction of the file is overwritten or
+    // deleted values, so that the file can be deleted.
+    public DBOptions setBlobGarbageRatio(double blobGarbageRatio) {
+        this.blobGarbageRatio = blobGarbageRatio;
+        return this;
+    }
+
+    public int getMultiGetThreads() {
+        return multiGetThreads;
+    }
+
+    // Threads that multiGet spreads the SSTables of a level across. 0 reads them all on the calling thread.
+    public DBOptions setMultiGetThreads(int multiGetThreads) {
+        this.multiGetThreads = multiGetThreads;
+        return this;
+    }
+
+    public ChecksumVerification getChecksumVerification() {
+        return checksumVerification;
+    }
+
+    // Which SSTable block reads are checked against the block's CRC32C.
+    public DBOptions setChecksumVerification(ChecksumVerification checksumVerification) {
+        this.checksumVerification = checksumVerification;
+        return this;
+    }
+}
@@ -0,0 +1,63 @@
+package util;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+// java.util.zip Deflate, prefixed with the uncompressed length so the output buffer is sized exactly.
+// Deflater and Inflater hold native state, so one of each is kept per thread and reset between blocks.
+public class DeflateCodec implements CompressionCodec {
+    private static final ThreadLocal<Deflater> DEFLATER = ThreadLocal.withInitial(() -> new Deflater(Deflater.BEST_SPEED, true));
+    private static final ThreadLocal<Inflater> INFLATER = ThreadLocal.withInitial(() -> new Inflater(true));
+
+    @Override
+    public byte[] compress(byte[] input, int offset, int length) {
+        Deflater deflater = DEFLATER.get();
+        deflater.reset();
+        deflater.setInput(input, offset, length);
+        deflater.finish();
+
+        byte[] output = new byte[4 + length + length / 1000 + 64];
+        ByteBuffer.wrap(output).putInt(length);
+        int size = 4;
+        while (!deflater.finished()) {
+            if (size == output.length) {
+                output = Arrays.copyOf(output, output.length * 2);
+            }
+            size += deflater.deflate(output, size, output.length - size);
+        }
+        return Arrays.copyOf(output, size);
+    }
+
+    @Override
+    public byte[] decompress(byte[] input, int offset, int length) throws IOException {
+        if (length < 4) {
+            throw new IOException("Corrupt deflate block: too short");
+        }
+        int uncompressedLength = ByteBuffer.wrap(input, offset, length).getInt();
+        // Deflate expands by at most a factor of about 1032, which bounds what a corrupt header can allocate
+        if (uncompressedLength < 0 || uncompressedLength > 1032L * length + 64) {
+            throw new IOException("Corrupt deflate block: bad length " + uncompressedLength);
+        }
+        Inflater inflater = INFLATER.get();
+        inflater.reset();
+        byte[] output = new byte[uncompressedLength];
+        inflater.setInput(input, offset + 4, length - 4);
+        try {
+            int size = 0;
+            while (size < output.length) {
+                int inflated = inflater.inflate(output, size, output.length - size);
+                if (inflated == 0 && (inflater.finished() || inflater.needsInput())) {
+                    throw new IOException("Truncated deflate block");
+                }
+                size += inflated;
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupt deflate block", e);
+        }
+        return output;
+    }
+}
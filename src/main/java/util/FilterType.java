@@ -0,0 +1,52 @@
+package util;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+// Filters a table can carry, recorded as the first byte of its filter block. The id is persisted, so existing
+// ids must never change.
+public enum FilterType {
+    BLOCKED_BLOOM((byte) 1) {
+        @Override
+        public KeyFilter build(long[] hashes, int count, int bitsPerKey) {
+            return BlockedBloomFilter.build(hashes, count, bitsPerKey);
+        }
+
+        @Override
+        public KeyFilter read(ByteBuffer in) throws IOException {
+            return BlockedBloomFilter.readFrom(in);
+        }
+    },
+    // Fixed 8-bit fingerprints: about 9.8 bits per key and 0.39% false positives whatever bitsPerKey is
+    XOR8((byte) 2) {
+        @Override
+        public KeyFilter build(long[] hashes, int count, int bitsPerKey) {
+            return Xor8Filter.build(hashes, count);
+        }
+
+        @Override
+        public KeyFilter read(ByteBuffer in) throws IOException {
+            return Xor8Filter.readFrom(in);
+        }
+    };
+
+    public final byte id;
+
+    FilterType(byte id) {
+        this.id = id;
+    }
+
+    // Builds a filter over the first count KeyHash hashes, at roughly bitsPerKey bits per key.
+    public abstract KeyFilter build(long[] hashes, int count, int bitsPerKey);
+
+    public abstract KeyFilter read(ByteBuffer in) throws IOException;
+
+    public static FilterType fromId(byte id) throws IOException {
+        for (FilterType type : values()) {
+            if (type.id == id) {
+                return type;
+            }
+        }
+        throw new IOException("Unknown filter type: " + id);
+    }
+}
@@ -0,0 +1,18 @@
+package util;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+// Per-table membership filter consulted before a lookup reads any data block. False positives are
+// allowed, false negatives are not.
+public interface KeyFilter {
+    boolean mightContain(String key);
+
+    // Filters built on KeyHash override this to test the key's precomputed hash.
+    default boolean mightContain(LookupKey key) {
+        return mightContain(key.key);
+    }
+
+    // Writes the filter in the form its FilterType reads back.
+    void writeTo(OutputStream out) throws IOException;
+}
@@ -0,0 +1,45 @@
+package util;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+
+// 64-bit MurmurHash64A of UTF-8 encoded keys. Filters derive all of their probes from this one hash,
+// so a key is encoded and hashed once per lookup however many bits, and tables, the lookup tests.
+public class KeyHash {
+    private static final long M = 0xc6a4a7935bd1e995L;
+    private static final int R = 47;
+    private static final long SEED = 0x4A4C534DL;
+    private static final VarHandle LONG_LE = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+    // Hashes the key's UTF-8 bytes. Lookups hash each key once through LookupKey instead.
+    public static long hash(String key) {
+        byte[] bytes = key.getBytes(StandardCharsets.UTF_8);
+        return hash(bytes, 0, bytes.length);
+    }
+
+    public static long hash(byte[] data, int offset, int length) {
+        long h = SEED ^ (length * M);
+        int end = offset + (length & ~7);
+        for (int i = offset; i < end; i += 8) {
+            long k = (long) LONG_LE.get(data, i);
+            k *= M;
+            k ^= k >>> R;
+            k *= M;
+            h ^= k;
+            h *= M;
+        }
+        // The last length % 8 bytes, read little-endian like a partial word
+        int tail = length & 7;
+        if (tail != 0) {
+            for (int i = tail - 1; i >= 0; i--) {
+                h ^= (long) (data[end + i] & 0xFF) << (8 * i);
+            }
+            h *= M;
+        }
+        h ^= h >>> R;
+        h *= M;
+        h ^= h >>> R;
+        return h;
+    }
+}
@@ -0,0 +1,146 @@
+package util;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+// Fast LZ77 codec in the style of LZ4: a single hash-table probe per position, no entropy coding.
+//
+// Output: [uncompressed length: 4] followed by sequences of
+// [token: 1][extra literal length bytes][literals][offset: 2, little endian][extra match length bytes].
+// The token's high nibble is the literal length and its low nibble the match length minus MIN_MATCH; a
+// nibble of 15 continues with bytes that are added until one is below 255. The last sequence carries
+// literals only and ends the input.
+public class LZCodec implements CompressionCodec {
+    private static final int MIN_MATCH = 4;
+    private static final int MAX_OFFSET = 65535;
+    private static final int HASH_BITS = 12;
+    private static final ThreadLocal<int[]> HASH_TABLE = ThreadLocal.withInitial(() -> new int[1 << HASH_BITS]);
+
+    @Override
+    public byte[] compress(byte[] input, int offset, int length) {
+        byte[] output = new byte[4 + length + length / 255 + 16];
+        ByteBuffer.wrap(output).putInt(length);
+        int op = 4;
+
+        // Positions are stored relative to offset plus one so that 0 means empty
+        int[] table = HASH_TABLE.get();
+        Arrays.fill(table, 0);
+        int end = offset + length;
+        int anchor = offset;
+        int ip = offset;
+        while (ip <= end - MIN_MATCH) {
+            int sequence = readInt(input, ip);
+            int hash = (sequence * -1640531535) >>> (32 - HASH_BITS);
+            int ref = offset + table[hash] - 1;
+            table[hash] = ip - offset + 1;
+            if (ref < offset || ip - ref > MAX_OFFSET || readInt(input, ref) != sequence) {
+                ip++;
+                continue;
+            }
+
+            int matchLength = MIN_MATCH;
+            while (ip + matchLength < end && input[ref + matchLength] == input[ip + matchLength]) {
+                matchLength++;
+            }
+            op = writeLiterals(output, op, input, anchor, ip - anchor, matchLength - MIN_MATCH);
+            output[op++] = (byte) (ip - ref);
+            output[op++] = (byte) ((ip - ref) >>> 8);
+            if (matchLength - MIN_MATCH >= 15) {
+                op = writeLength(output, op, matchLength - MIN_MATCH - 15);
+            }
+            ip += matchLength;
+            anchor = ip;
+        }
+        op = writeLiterals(output, op, input, anchor, end - anchor, 0);
+        return Arrays.copyOf(output, op);
+    }
+
+    @Override
+    public byte[] decompress(byte[] input, int offset, int length) throws IOException {
+        if (length < 5) {
+            throw new IOException("Corrupt LZ block: too short");
+        }
+        int end = offset + length;
+        int uncompressedLength = ByteBuffer.wrap(input, offset, length).getInt();
+        // Every input byte expands to at most 255 output bytes, which bounds what a corrupt header can allocate
+        if (uncompressedLength < 0 || uncompressedLength > 255L * length) {
+            throw new IOException("Corrupt LZ block: bad length " + uncompressedLength);
+        }
+        try {
+            byte[] output = new byte[uncompressedLength];
+            int ip = offset + 4;
+            int op = 0;
+            while (true) {
+                int token = input[ip++] & 0xFF;
+                int literalLength = token >>> 4;
+                if (literalLength == 15) {
+                    int b;
+                    do {
+                        b = input[ip++] & 0xFF;
+                        literalLength += b;
+                    } while (b == 255);
+                }
+                if (ip + literalLength > end) {
+                    throw new IOException("Corrupt LZ block: literals overrun input");
+                }
+                System.arraycopy(input, ip, output, op, literalLength);
+                ip += literalLength;
+                op += literalLength;
+                if (ip == end) {
+                    break;
+                }
+
+                int matchOffset = (input[ip] & 0xFF) | (input[ip + 1] & 0xFF) << 8;
+                ip += 2;
+                int matchLength = token & 0x0F;
+                if (matchLength == 15) {
+                    int b;
+                    do {
+                        b = input[ip++] & 0xFF;
+                        matchLength += b;
+                    } while (b == 255);
+                }
+                matchLength += MIN_MATCH;
+                int ref = op - matchOffset;
+                if (matchOffset == 0 || ref < 0 || op + matchLength > output.length) {
+                    throw new IOException("Corrupt LZ block: bad match");
+                }
+                // Byte by byte because a match may overlap the bytes it is producing
+                for (int i = 0; i < matchLength; i++) {
+                    output[op++] = output[ref++];
+                }
+            }
+            if (op != output.length) {
+                throw new IOException("Corrupt LZ block: length mismatch");
+            }
+            return output;
+        } catch (IndexOutOfBoundsException e) {
+            throw new IOException("Corrupt LZ block", e);
+        }
+    }
+
+    private static int writeLiterals(byte[] output, int op, byte[] input, int start, int literalLength, int matchCode) {
+        int tokenPos = op++;
+        int literalNibble = Math.min(literalLength, 15);
+        output[tokenPos] = (byte) (literalNibble << 4 | Math.min(matchCode, 15));
+        if (literalNibble == 15) {
+            op = writeLength(output, op, literalLength - 15);
+        }
+        System.arraycopy(input, start, output, op, literalLength);
+        return op + literalLength;
+    }
+
+    private static int writeLength(byte[] output, int op, int length) {
+        while (length >= 255) {
+            output[op++] = (byte) 255;
+            length -= 255;
+        }
+        output[op++] = (byte) length;
+        return op;
+    }
+
+    private static int readInt(byte[] buffer, int pos) {
+        return (buffer[pos] & 0xFF) | (buffer[pos + 1] & 0xFF) << 8 | (buffer[pos + 2] & 0xFF) << 16 | (buffer[pos + 3] & 0xFF) << 24;
+    }
+}
@@ -0,0 +1,18 @@
+package util;
+
+import java.nio.charset.StandardCharsets;
+
+// A key as a lookup probes it: UTF-8 encoded and hashed once, so that the filter, index and data block of
+// every table the lookup visits reuse the same bytes and hash instead of encoding the key again.
+public final class LookupKey {
+    public final String key;
+    // Exactly the encoded key, so bytes.length is its length
+    public final byte[] bytes;
+    public final long hash;
+
+    public LookupKey(String key) {
+        this.key = key;
+        this.bytes = key.getBytes(StandardCharsets.UTF_8);
+        this.hash = KeyHash.hash(bytes, 0, bytes.length);
+    }
+}
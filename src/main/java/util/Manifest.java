@@ -1,22 +1,47 @@
 package util;
 
+import sstable.BlobStore;
+import sstable.BlockCache;
 import sstable.SSTable;
+import sstable.TableCache;
 
 import java.io.*;
 import java.nio.file.*;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 public class Manifest {
     private final String filePath;
     private final String current;
+    // Level 0 is ordered newest first and its tables may overlap. Every other level holds tables with
+    // disjoint key ranges, as written by one compaction, ordered by key range.
     private final Map<Integer, List<SSTable>> levelMap = new HashMap<>();
+    private static final Comparator<SSTable> BY_KEY_RANGE =
+            Comparator.comparing(SSTable::getMinKey, Comparator.nullsFirst(Comparator.naturalOrder()));
     public final List<String> walPaths = new ArrayList<>();
     private final ReadWriteLock rwLock = new ReentrantReadWriteLock();
+    // Shared by every table registered here; null when disabled
+    private final BlockCache blockCache;
+    private final TableCache tableCache;
+    private final boolean mmapReads;
+    private final ChecksumVerification checksumVerification;
+    private final BlobStore blobStore;
+    // Number of the next blob file. Persisted with the blob files, so a number is never handed out twice.
+    private final AtomicLong nextBlobFileNumber = new AtomicLong(1);
 
     public Manifest() throws IOException {
+        this(new DBOptions());
+    }
+
+    public Manifest(DBOptions options) throws IOException {
         this.filePath = "./data";
+        this.blockCache = options.getBlockCacheCapacity() > 0 ? new BlockCache(options.getBlockCacheCapacity()) : null;
+        this.tableCache = options.getMaxOpenFiles() > 0 ? new TableCache(options.getMaxOpenFiles()) : null;
+        this.mmapReads = options.isMmapReads();
+        this.checksumVerification = options.getChecksumVerification();
+        this.blobStore = new BlobStore(filePath, options, tableCache, nextBlobFileNumber::getAndIncrement);
         this.current = filePath + "/CURRENT";
 
         try {
@@ -29,6 +54,8 @@ public class Manifest {
         if (Files.exists(currentPath)) {
             String manifestFile = Files.readString(currentPath).trim();
             loadManifest(manifestFile);
+            // Files that became all garbage just before the last persist
+            blobStore.deleteObsoleteFiles();
         } else {
             String manifestFile = generateManifestFileName(1);
             persistToFile(manifestFile);
@@ -44,15 +71,26 @@ public class Manifest {
                 List<SSTable> sstables = new ArrayList<>();
                 for (String sstablePath : entry.getValue()) {
                     try {
-                        sstables.add(new SSTable(sstablePath));
+                        SSTable sstable = new SSTable(sstablePath);
+                        attach(sstable);
+                        sstables.add(sstable);
                     } catch (IOException e) {
                         System.err.println("Failed to load SSTable: " + sstablePath + " - " + e.getMessage());
                     }
                 }
                 levelMap.put(level, sstables);
+                sortByKeyRange(level);
             }
             List<String> loadedWalPaths = (List<String>) ois.readObject();
             walPaths.addAll(loadedWalPaths);
+            try {
+                blobStore.restore(readBlobFiles(ois.readObject()));
+                nextBlobFileNumber.set(ois.readLong());
+            } catch (EOFException e) {
+                // Written before values could be kept in blob files, or before their numbers came from here
+                nextBlobFileNumber.set(blobStore.snapshot().keySet().stream()
+                        .mapToLong(fileNumber -> fileNumber + 1).max().orElse(1));
+            }
         } catch (ClassNotFoundException e) {
             throw new IOException("Failed to deserialize manifest: " + e.getMessage(), e);
         } catch (IOException e) {
@@ -79,7 +117,24 @@ public class Manifest {
             }
             oos.writeObject(serializedMap);
             oos.writeObject(new ArrayList<>(walPaths));
+            oos.writeObject(blobStore.snapshot());
+            oos.writeLong(nextBlobFileNumber.get());
+        }
+    }
+
+    // Serialization erases the map's types, so each entry is checked before it is handed to the blob store
+    private static Map<Long, long[]> readBlobFiles(Object serialized) throws IOException {
+        if (!(serialized instanceof Map)) {
+            throw new IOException("Invalid blob file list in manifest");
+        }
+        Map<Long, long[]> blobFiles = new HashMap<>();
+        for (Map.Entry<?, ?> entry : ((Map<?, ?>) serialized).entrySet()) {
+            if (!(entry.getKey() instanceof Long) || !(entry.getValue() instanceof long[])) {
+                throw new IOException("Invalid blob file entry in manifest");
+            }
+            blobFiles.put((Long) entry.getKey(), (long[]) entry.getValue());
         }
+        return blobFiles;
     }
 
     private String generateManifestFileName(int number) {
@@ -100,6 +155,34 @@ public class Manifest {
         return generateManifestFileName(maxNumber + 1);
     }
 
+    // Every live table shares the DB's block cache and pool of open files and reads in the DB's mode
+    private void attach(SSTable sstable) {
+        sstable.setBlockCache(blockCache);
+        sstable.setTableCache(tableCache);
+        sstable.setMmapReads(mmapReads);
+        sstable.setChecksumVerification(checksumVerification);
+        sstable.setBlobStore(blobStore);
+    }
+
+    public BlobStore getBlobStore() {
+        return blobStore;
+    }
+
+    public BlockCache getBlockCache() {
+        return blockCache;
+    }
+
+    public TableCache getTableCache() {
+        return tableCache;
+    }
+
+    // Closes the table files held open for lookups.
+    public void close() {
+        if (tableCache != null) {
+            tableCache.close();
+        }
+    }
+
     public ReadWriteLock getLock() {
         return rwLock;
     }
@@ -115,14 +198,51 @@ public class Manifest {
     }
 
     public void addSSTable(int level, SSTable sstable) throws IOException {
+        addSSTable(level, sstable, null);
+    }
+
+    // blobs, if given, is the blob writer the table was written with and is committed along with it.
+    public void addSSTable(int level, SSTable sstable, BlobStore.Writer blobs) throws IOException {
+        attach(sstable);
         levelMap.computeIfAbsent(level, k -> new ArrayList<>()).add(0, sstable);
-        persist();
+        sortByKeyRange(level);
+        commitAndPersist(blobs);
     }
 
     public List<SSTable> getSSTables(int level) {
         return new ArrayList<>(levelMap.getOrDefault(level, new ArrayList<>()));
     }
 
+    // The tables of level 0, newest first, without a copy. Callers hold the read lock while they use it.
+    public List<SSTable> getLevel0SSTables() {
+        return Collections.unmodifiableList(levelMap.getOrDefault(0, Collections.emptyList()));
+    }
+
+    // The only table of a level above 0 whose key range contains key, or null if none does. A binary search
+    // over the tables ordered by key range. Callers hold the read lock.
+    public SSTable findSSTable(int level, String key) {
+        List<SSTable> tables = levelMap.get(level);
+        if (tables == null) {
+            return null;
+        }
+        // Last table whose smallest key is <= key
+        int low = 0;
+        int high = tables.size() - 1;
+        SSTable candidate = null;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            String minKey = tables.get(mid).getMinKey();
+            if (minKey == null || minKey.compareTo(key) <= 0) {
+                candidate = tables.get(mid);
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return candidate != null && candidate.getMaxKey() != null && key.compareTo(candidate.getMaxKey()) <= 0
+                ? candidate : null;
+    }
+
     public int maxLevel() {
         rwLock.readLock().lock();
         try {
@@ -132,11 +252,40 @@ public class Manifest {
         }
     }
 
-    public void replace(int levelToClear, List<SSTable> newTables) throws IOException {
-        levelMap.remove(levelToClear);
-        levelMap.remove(levelToClear + 1);
-        levelMap.computeIfAbsent(levelToClear + 1, k -> new ArrayList<>()).addAll(newTables);
+    // Swaps the compacted tables of level and level + 1 for newTables. Tables flushed to level 0 while the
+    // compaction ran are kept. blobs, if given, is the blob writer of the compaction and is committed along
+    // with the new tables.
+    public void replace(int level, List<SSTable> oldTables, List<SSTable> newTables,
+                        BlobStore.Writer blobs) throws IOException {
+        for (int l = level; l <= level + 1; l++) {
+            List<SSTable> remaining = levelMap.getOrDefault(l, new ArrayList<>());
+            remaining.removeAll(oldTables);
+            if (remaining.isEmpty()) {
+                levelMap.remove(l);
+            }
+        }
+        for (SSTable sstable : newTables) {
+            attach(sstable);
+        }
+        levelMap.computeIfAbsent(level + 1, k -> new ArrayList<>()).addAll(newTables);
+        sortByKeyRange(level + 1);
+        commitAndPersist(blobs);
+    }
+
+    private void sortByKeyRange(int level) {
+        if (level > 0) {
+            levelMap.get(level).sort(BY_KEY_RANGE);
+        }
+    }
+
+    // Blob files that became all garbage are deleted only after the manifest without their last referencing
+    // tables is persisted.
+    private void commitAndPersist(BlobStore.Writer blobs) throws IOException {
+        if (blobs != null) {
+            blobs.commit();
+        }
         persist();
+        blobStore.deleteObsoleteFiles();
     }
 
     public void displayManifestFile() {
@@ -164,7 +313,8 @@ public class Manifest {
                 System.out.println("Level " + level + ":");
                 for (int i = 0; i < sstables.size(); i++) {
                     SSTable sstable = sstables.get(i);
-                    System.out.println("  [" + i + "] " + sstable.getFilePath());
+                    System.out.printf("  [%d] %s (%d entries, filter false positives %.2f%%)%n", i, sstable.getFilePath(),
+                            sstable.getEntryCount(), 100 * sstable.getFilterFalsePositiveRate());
                 }
             }
             System.out.println("=============================");
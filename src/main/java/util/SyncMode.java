@@ -0,0 +1,14 @@
+package util;
+
+// Durability of a write, from weakest to strongest. Declaration order matters: a group commit
+// honours the strongest mode of any record in the batch.
+public enum SyncMode {
+    // Skip the WAL entirely; unflushed writes are lost on any crash
+    NO_WAL,
+    // Hand the record to the OS; survives a process crash but not a machine crash
+    BUFFERED,
+    // Buffered, plus an fsync once the configured interval in bytes or milliseconds has passed
+    PERIODIC,
+    // fsync before the write returns
+    FSYNC
+}
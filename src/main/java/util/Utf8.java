@@ -0,0 +1,66 @@
+package util;
+
+import java.nio.ByteBuffer;
+
+// Helpers for working with UTF-8 encoded keys without decoding them back into Strings.
+// Encoded keys are compared in the same order as String.compareTo, so byte-level structures
+// stay consistent with the String-keyed memtable and index.
+public class Utf8 {
+    public static int encodedLength(String s) {
+        int len = s.length();
+        int bytes = len;
+        for (int i = 0; i < len; i++) {
+            char c = s.charAt(i);
+            if (c >= 0x80) {
+                if (c < 0x800) {
+                    bytes += 1;
+                } else if (Character.isHighSurrogate(c) && i + 1 < len && Character.isLowSurrogate(s.charAt(i + 1))) {
+                    bytes += 2; // 4 bytes for the pair, 2 chars already counted
+                    i++;
+                } else {
+                    bytes += 2;
+                }
+            }
+        }
+        return bytes;
+    }
+
+    public static int compare(byte[] a, int aOffset, int aLength, byte[] b, int bOffset, int bLength) {
+        int n = Math.min(aLength, bLength);
+        for (int i = 0; i < n; i++) {
+            int x = a[aOffset + i] & 0xFF;
+            int y = b[bOffset + i] & 0xFF;
+            if (x != y) {
+                return compareBytes(x, y);
+            }
+        }
+        return aLength - bLength;
+    }
+
+    public static int compare(byte[] a, int aOffset, int aLength, ByteBuffer b, int bOffset, int bLength) {
+        int n = Math.min(aLength, bLength);
+        for (int i = 0; i < n; i++) {
+            int x = a[aOffset + i] & 0xFF;
+            int y = b.get(bOffset + i) & 0xFF;
+            if (x != y) {
+                return compareBytes(x, y);
+            }
+        }
+        return aLength - bLength;
+    }
+
+    public static int compare(byte[] a, byte[] b) {
+        return compare(a, 0, a.length, b, 0, b.length);
+    }
+
+    // UTF-8 byte order is code point order, while String.compareTo orders by UTF-16 code unit.
+    // The two only disagree between U+E000..U+FFFF (lead bytes 0xEE, 0xEF) and supplementary
+    // characters (lead bytes 0xF0..0xF4), which UTF-16 sorts first because of their surrogates.
+    private static int compareBytes(int x, int y) {
+        if (x >= 0xEE && y >= 0xEE) {
+            if (x <= 0xEF) x += 0x10;
+            if (y <= 0xEF) y += 0x10;
+        }
+        return x - y;
+    }
+}
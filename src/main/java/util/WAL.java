@@ -1,38 +1,461 @@
 package util;
 
 import memtable.Memtable;
+import memtable.WriteBatch;
 
 import java.io.*;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.BiConsumer;
+import java.util.zip.CRC32C;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 
+// Concurrent writers are group committed: each queues its record, and whichever writer finds no write in
+// progress becomes the leader, writes every queued record with a single write call (and at most one fsync)
+// and wakes the rest.
+//
+// The file is a sequence of 32 KB blocks in the LevelDB log layout. Each record is split into fragments that
+// never cross a block boundary, and every fragment has a 7 byte header: [CRC32C: 4][length: 2][type: 1].
+// The checksum covers the type byte and the payload. When fewer than 7 bytes remain in a block they are
+// zero-filled. A torn or corrupted tail therefore ends replay at the last intact record instead of failing it.
+//
+// Files start with MAGIC, inside the first block. Files without it were written by the original unframed WAL
+// ([key length: 4][key][value length: 4][value] per write); they are still replayed, but never appended to.
 public class WAL {
+    static final int BLOCK_SIZE = 32 * 1024;
+    static final int HEADER_SIZE = 7;
+    private static final byte FULL = 1;
+    private static final byte FIRST = 2;
+    private static final byte MIDDLE = 3;
+    private static final byte LAST = 4;
+    private static final int REPLAY_READ_SIZE = 32 * BLOCK_SIZE;
+    // 0xFF cannot start the big-endian key length of an unframed record, which is never negative
+    static final byte[] MAGIC = {(byte) 0xFF, 'L', 'S', 'M', 'W', 'A', 'L', 1};
+
     private final String filePath;
-    private final DataOutputStream outputStream;
+    private final FileChannel channel;
+    private final SyncMode defaultSyncMode;
+    private final long syncIntervalMillis;
+    private final long syncIntervalBytes;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition committed = lock.newCondition();
+    private List<byte[]> pending = new ArrayList<>();
+    private SyncMode pendingSyncMode = SyncMode.BUFFERED;
+    private long lastSequence = 0L;
+    private long committedSequence = 0L;
+    private boolean leaderActive = false;
+    private IOException failure;
+    private ByteBuffer batchBuffer = ByteBuffer.allocate(64 * 1024);
+    private long unsyncedBytes = 0L;
+    // Strongest mode any write since the last fsync asked for; close syncs for PERIODIC and above
+    private SyncMode unsyncedSyncMode = SyncMode.BUFFERED;
+    private long lastSyncNanos = System.nanoTime();
+    private int blockOffset;
+    private final CRC32C crc = new CRC32C();
 
     public WAL(String filePath) throws IOException {
+        this(filePath, new DBOptions());
+    }
+
+    public WAL(String filePath, DBOptions options) throws IOException {
+        this(filePath, options, FileChannel.open(Paths.get(filePath),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND));
+    }
+
+    // channel must append to filePath; tests pass one that fails or counts fsyncs
+    WAL(String filePath, DBOptions options, FileChannel channel) throws IOException {
         this.filePath = filePath;
-        this.outputStream = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(filePath, true)));
+        this.defaultSyncMode = options.getSyncMode();
+        this.syncIntervalMillis = options.getSyncIntervalMillis();
+        this.syncIntervalBytes = options.getSyncIntervalBytes();
+        this.channel = channel;
+        if (!hasHeader(filePath)) {
+            channel.close();
+            throw new IOException("WAL " + filePath + " has no header; it is in an older format and can only be replayed");
+        }
+        if (channel.size() < MAGIC.length) {
+            // A new file, or one whose header a crash tore before anything was logged
+            channel.truncate(0);
+            ByteBuffer header = ByteBuffer.wrap(MAGIC);
+            while (header.hasRemaining()) {
+                channel.write(header);
+            }
+        }
+        this.blockOffset = (int) (channel.size() % BLOCK_SIZE);
+    }
+
+    // Whether the file was written by the original WAL, without a header and block framing.
+    public static boolean isUnframed(String filePath) throws IOException {
+        return !hasHeader(filePath);
+    }
+
+    // Whether the file starts with MAGIC. Files shorter than MAGIC count as having it if they hold a prefix of
+    // it, since a crash may have torn the header of a new file.
+    private static boolean hasHeader(String filePath) throws IOException {
+        try (FileChannel in = FileChannel.open(Paths.get(filePath), StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(MAGIC.length);
+            while (header.hasRemaining() && in.read(header) > 0) {
+                // keep reading until the header is complete or the file ends
+            }
+            for (int i = 0; i < header.position(); i++) {
+                if (header.get(i) != MAGIC[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
     }
 
     public void writeEntry(String key, String value) throws IOException {
-        IOUtils.writeString(outputStream, key);
-        IOUtils.writeString(outputStream, value);
-        outputStream.flush();
+        writeEntry(key, value, defaultSyncMode);
+    }
+
+    public void writeEntry(String key, String value, SyncMode syncMode) throws IOException {
+        write(new WriteBatch().put(key, value), syncMode);
+    }
+
+    // Logs the whole batch as one record, so replay applies all of it or none of it.
+    public void write(WriteBatch batch, SyncMode syncMode) throws IOException {
+        append(batch.encode(), syncMode);
+    }
+
+    // Returns once the record has been written, either by this thread as leader or by another leader.
+    private void append(byte[] record, SyncMode syncMode) throws IOException {
+        lock.lock();
+        try {
+            pending.add(record);
+            if (syncMode.compareTo(pendingSyncMode) > 0) {
+                pendingSyncMode = syncMode;
+            }
+            long sequence = ++lastSequence;
+            while (true) {
+                if (failure != null) {
+                    throw new IOException("WAL is unusable after a failed write: " + filePath, failure);
+                }
+                if (committedSequence >= sequence) {
+                    return;
+                }
+                if (!leaderActive) {
+                    break;
+                }
+                committed.awaitUninterruptibly();
+            }
+
+            leaderActive = true;
+            List<byte[]> batch = pending;
+            long batchSequence = lastSequence;
+            SyncMode batchSyncMode = pendingSyncMode;
+            boolean sync = batchSyncMode == SyncMode.FSYNC
+                    || (batchSyncMode == SyncMode.PERIODIC && syncDue());
+            pending = new ArrayList<>();
+            pendingSyncMode = SyncMode.BUFFERED;
+
+            IOException error = null;
+            lock.unlock();
+            try {
+                unsyncedBytes += writeBatch(batch);
+                if (batchSyncMode.compareTo(unsyncedSyncMode) > 0) {
+                    unsyncedSyncMode = batchSyncMode;
+                }
+                if (sync) {
+                    sync();
+                }
+            } catch (IOException e) {
+                error = e;
+            } finally {
+                lock.lock();
+                leaderActive = false;
+                if (error == null) {
+                    committedSequence = batchSequence;
+                } else {
+                    failure = error;
+                }
+                committed.signalAll();
+            }
+            if (error != null) {
+                throw error;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Called periodically in PERIODIC mode so the unsynced window stays bounded when writes stop. A failed
+    // fsync makes the WAL unusable like a failed write, so the next write reports it.
+    public void syncIfDue() throws IOException {
+        lock.lock();
+        try {
+            while (leaderActive) {
+                committed.awaitUninterruptibly();
+            }
+            if (failure != null || !channel.isOpen() || unsyncedBytes == 0 || !syncDue()) {
+                return;
+            }
+            // Act as a leader with an empty batch so no other leader touches the sync counters meanwhile
+            leaderActive = true;
+            IOException error = null;
+            lock.unlock();
+            try {
+                sync();
+            } catch (IOException e) {
+                error = e;
+                throw e;
+            } finally {
+                lock.lock();
+                leaderActive = false;
+                if (error != null) {
+                    failure = error;
+                }
+                committed.signalAll();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Leader-only state, like the batch buffer below.
+    private boolean syncDue() {
+        return unsyncedBytes >= syncIntervalBytes
+                || System.nanoTime() - lastSyncNanos >= syncIntervalMillis * 1_000_000L;
+    }
+
+    private void sync() throws IOException {
+        channel.force(false);
+        unsyncedBytes = 0L;
+        unsyncedSyncMode = SyncMode.BUFFERED;
+        lastSyncNanos = System.nanoTime();
+    }
+
+    // Only the leader touches batchBuffer, blockOffset and crc, so they are reused across batches without
+    // further locking. Returns the number of bytes written.
+    private int writeBatch(List<byte[]> batch) throws IOException {
+        batchBuffer.clear();
+        for (byte[] record : batch) {
+            frame(record);
+        }
+        batchBuffer.flip();
+        int total = batchBuffer.remaining();
+        while (batchBuffer.hasRemaining()) {
+            channel.write(batchBuffer);
+        }
+        return total;
+    }
+
+    private void frame(byte[] record) {
+        int offset = 0;
+        boolean begin = true;
+        do {
+            int leftover = BLOCK_SIZE - blockOffset;
+            if (leftover < HEADER_SIZE) {
+                ensureCapacity(leftover);
+                for (int i = 0; i < leftover; i++) {
+                    batchBuffer.put((byte) 0);
+                }
+                blockOffset = 0;
+                leftover = BLOCK_SIZE;
+            }
+
+            int fragmentLength = Math.min(record.length - offset, leftover - HEADER_SIZE);
+            boolean end = offset + fragmentLength == record.length;
+            byte type = begin && end ? FULL : begin ? FIRST : end ? LAST : MIDDLE;
+
+            crc.reset();
+            crc.update(type);
+            crc.update(record, offset, fragmentLength);
+            ensureCapacity(HEADER_SIZE + fragmentLength);
+            batchBuffer.putInt((int) crc.getValue())
+                    .putShort((short) fragmentLength)
+                    .put(type)
+                    .put(record, offset, fragmentLength);
+
+            blockOffset += HEADER_SIZE + fragmentLength;
+            offset += fragmentLength;
+            begin = false;
+        } while (offset < record.length);
+    }
+
+    private void ensureCapacity(int bytes) {
+        if (batchBuffer.remaining() < bytes) {
+            ByteBuffer grown = ByteBuffer.allocate(Math.max(batchBuffer.capacity() * 2, batchBuffer.position() + bytes));
+            batchBuffer.flip();
+            grown.put(batchBuffer);
+            batchBuffer = grown;
+        }
+    }
+
+    public static ReplayResult replay(Memtable memtable, String filePath) throws IOException {
+        return replay(filePath, memtable::put);
+    }
+
+    // Replays every intact record into the sink, stopping at the first torn or corrupt fragment.
+    public static ReplayResult replay(String filePath, BiConsumer<String, String> sink) throws IOException {
+        if (!hasHeader(filePath)) {
+            return replayUnframed(filePath, sink);
+        }
+        long records = 0;
+        long validLength = 0;
+        try (FileChannel in = FileChannel.open(Paths.get(filePath), StandardOpenOption.READ)) {
+            if (in.size() < MAGIC.length) {
+                // A torn header: nothing was logged yet
+                return new ReplayResult(0, 0, false);
+            }
+            validLength = MAGIC.length;
+            ByteBuffer chunk = ByteBuffer.allocate(REPLAY_READ_SIZE);
+            ByteArrayOutputStream fragments = new ByteArrayOutputStream();
+            CRC32C crc = new CRC32C();
+            boolean inFragmentedRecord = false;
+            long chunkStart = 0;
+
+            replay:
+            while (true) {
+                chunk.clear();
+                while (chunk.hasRemaining() && in.read(chunk, chunkStart + chunk.position()) > 0) {
+                    // keep reading until the chunk is full or the file ends
+                }
+                chunk.flip();
+                if (!chunk.hasRemaining()) {
+                    break;
+                }
+
+                for (int blockStart = 0; blockStart < chunk.limit(); blockStart += BLOCK_SIZE) {
+                    int blockEnd = Math.min(blockStart + BLOCK_SIZE, chunk.limit());
+                    int pos = chunkStart == 0 && blockStart == 0 ? MAGIC.length : blockStart;
+                    while (blockEnd - pos >= HEADER_SIZE) {
+                        int checksum = chunk.getInt(pos);
+                        int length = chunk.getShort(pos + 4) & 0xFFFF;
+                        byte type = chunk.get(pos + 6);
+                        if (type == 0 && length == 0) {
+                            break replay; // zero-filled space past the last write
+                        }
+                        if (pos + HEADER_SIZE + length > blockEnd) {
+                            break replay; // torn write
+                        }
+                        crc.reset();
+                        crc.update(type);
+                        crc.update(chunk.array(), pos + HEADER_SIZE, length);
+                        if ((int) crc.getValue() != checksum) {
+                            break replay;
+                        }
+
+                        if (type == FULL || type == FIRST) {
+                            if (inFragmentedRecord) {
+                                break replay;
+                            }
+                            fragments.reset();
+                        } else if (type != MIDDLE && type != LAST || !inFragmentedRecord) {
+                            break replay;
+                        }
+                        fragments.write(chunk.array(), pos + HEADER_SIZE, length);
+                        pos += HEADER_SIZE + length;
+                        inFragmentedRecord = type == FIRST || type == MIDDLE;
+
+                        if (type == FULL || type == LAST) {
+                            try {
+                                applyRecord(sink, ByteBuffer.wrap(fragments.toByteArray()));
+                            } catch (BufferUnderflowException | NegativeArraySizeException | IllegalArgumentException e) {
+                                break replay; // checksum matched but the payload is malformed
+                            }
+                            records++;
+                            validLength = chunkStart + pos;
+                        }
+                    }
+                    if (blockEnd - blockStart < BLOCK_SIZE) {
+                        break replay; // partial trailing block
+                    }
+                }
+                chunkStart += chunk.limit();
+            }
+
+            if (validLength < in.size()) {
+                System.err.println("WAL replay stopped at offset " + validLength + " of " + in.size() + " in " + filePath);
+            }
+        }
+        return new ReplayResult(records, validLength, false);
+    }
+
+    // Replays a file of the original unframed WAL, stopping at a torn last record. It has no checksums, so a
+    // file whose first record doesn't even fit in it is rejected rather than taken for an empty log.
+    private static ReplayResult replayUnframed(String filePath, BiConsumer<String, String> sink) throws IOException {
+        long records = 0;
+        long validLength = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(filePath)))) {
+            long size = Files.size(Paths.get(filePath));
+            while (true) {
+                byte[] key = readUnframedBytes(in, size - validLength);
+                byte[] value = key == null ? null : readUnframedBytes(in, size - validLength - 4 - key.length);
+                if (value == null) {
+                    break;
+                }
+                sink.accept(new String(key, StandardCharsets.UTF_8), new String(value, StandardCharsets.UTF_8));
+                records++;
+                validLength += 8 + key.length + value.length;
+            }
+            if (records == 0 && size > 0) {
+                throw new IOException("Unrecognized WAL format in " + filePath);
+            }
+            if (validLength < size) {
+                System.err.println("WAL replay stopped at offset " + validLength + " of " + size + " in " + filePath);
+            }
+        }
+        return new ReplayResult(records, validLength, true);
+    }
+
+    // Returns null if the length prefix or the bytes it announces run past the remaining bytes of the file.
+    private static byte[] readUnframedBytes(DataInputStream in, long remaining) throws IOException {
+        if (remaining < 4) {
+            return null;
+        }
+        int length = in.readInt();
+        if (length < 0 || length > remaining - 4) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return bytes;
+    }
+
+    // Decodes the whole batch before applying any of it, so a malformed record contributes nothing.
+    private static void applyRecord(BiConsumer<String, String> sink, ByteBuffer payload) {
+        List<String[]> operations = new ArrayList<>();
+        WriteBatch.decode(payload, (key, value) -> operations.add(new String[]{key, value}));
+        for (String[] operation : operations) {
+            sink.accept(operation[0], operation[1]);
+        }
     }
 
-    public static void replay(Memtable memtable, String filePath) throws IOException {
-        try (DataInputStream inputStream = new DataInputStream(new BufferedInputStream(new FileInputStream(filePath)))) {
-            while (inputStream.available() > 0) {
-                String key = IOUtils.readString(inputStream);
-                String value = IOUtils.readString(inputStream);
-                memtable.put(key, value);
+    // Drops a torn tail left by a crash so that new records are appended right after the last intact one.
+    public static void truncate(String filePath, long validLength) throws IOException {
+        try (FileChannel out = FileChannel.open(Paths.get(filePath), StandardOpenOption.WRITE)) {
+            if (out.size() > validLength) {
+                out.truncate(validLength);
             }
         }
     }
 
     public void close() throws IOException {
-        outputStream.close();
+        lock.lock();
+        try {
+            while (leaderActive) {
+                committed.awaitUninterruptibly();
+            }
+            // Writes that asked for PERIODIC through WriteOptions are synced too, even under a weaker default
+            if (channel.isOpen() && failure == null && unsyncedBytes > 0
+                    && (defaultSyncMode.compareTo(SyncMode.PERIODIC) >= 0
+                    || unsyncedSyncMode.compareTo(SyncMode.PERIODIC) >= 0)) {
+                sync();
+            }
+            channel.close();
+        } finally {
+            lock.unlock();
+        }
     }
 
     public void delete() throws IOException {
@@ -40,7 +463,25 @@ public class WAL {
         Files.deleteIfExists(Paths.get(filePath));
     }
 
+    // Deletes a WAL file that is not open, whatever its format.
+    public static void delete(String filePath) throws IOException {
+        Files.deleteIfExists(Paths.get(filePath));
+    }
+
     public String getFilePath() {
         return filePath;
     }
-}
\ No newline at end of file
+
+    public static class ReplayResult {
+        public final long records;
+        public final long validLength;
+        // The file has no header and must not be truncated or appended to
+        public final boolean unframed;
+
+        ReplayResult(long records, long validLength, boolean unframed) {
+            this.records = records;
+            this.validLength = validLength;
+            this.unframed = unframed;
+        }
+    }
+}
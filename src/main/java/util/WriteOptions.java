@@ -0,0 +1,15 @@
+package util;
+
+// Per-write overrides; anything left unset falls back to the DB-wide DBOptions.
+public class WriteOptions {
+    private SyncMode syncMode;
+
+    public SyncMode getSyncMode() {
+        return syncMode;
+    }
+
+    public WriteOptions setSyncMode(SyncMode syncMode) {
+        this.syncMode = syncMode;
+        return this;
+    }
+}
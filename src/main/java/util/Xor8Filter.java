@@ -0,0 +1,161 @@
+package util;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+// Static xor filter with 8-bit fingerprints (Graf and Lemire, "Xor Filters", 2020). A key is present when
+// the xor of its three fingerprint slots, one from each third of the table, equals its own fingerprint.
+// It takes about 9.8 bits per key for a 0.39% false-positive rate, where a bloom filter needs about 12,
+// but a lookup reads three slots instead of one cache line. It can only be built over the complete key
+// set at once, which suits SSTables since they never change after they are written.
+// Layout: [seed: 8][block length: 4][fingerprints: 3 * block length]
+public class Xor8Filter implements KeyFilter {
+    private static final int MAX_ATTEMPTS = 100;
+
+    private final long seed;
+    private final int blockLength;
+    private final byte[] fingerprints;
+
+    private Xor8Filter(long seed, int blockLength, byte[] fingerprints) {
+        this.seed = seed;
+        this.blockLength = blockLength;
+        this.fingerprints = fingerprints;
+    }
+
+    // Built over the first count hashes; duplicates are dropped since they cannot be placed twice.
+    public static Xor8Filter build(long[] hashes, int count) {
+        long[] keys = Arrays.copyOf(hashes, count);
+        Arrays.sort(keys);
+        int size = 0;
+        for (int i = 0; i < keys.length; i++) {
+            if (i == 0 || keys[i] != keys[i - 1]) {
+                keys[size++] = keys[i];
+            }
+        }
+
+        int blockLength = (int) ((32 + 1.23 * size) / 3) + 1;
+        int capacity = 3 * blockLength;
+        long[] xorHashes = new long[capacity];
+        int[] counts = new int[capacity];
+        int[] queue = new int[capacity];
+        long[] stackHashes = new long[size];
+        int[] stackSlots = new int[size];
+        long seed = 0x5EED5EEDL;
+
+        for (int attempt = 0; attempt < MAX_ATTEMPTS; attempt++) {
+            seed = mix(seed + attempt);
+            Arrays.fill(xorHashes, 0L);
+            Arrays.fill(counts, 0);
+            for (int i = 0; i < size; i++) {
+                long h = mix(keys[i] + seed);
+                for (int j = 0; j < 3; j++) {
+                    int slot = slot(h, j, blockLength);
+                    xorHashes[slot] ^= h;
+                    counts[slot]++;
+                }
+            }
+
+            // Peel slots that only one key maps to, until every key is assigned or the graph has a cycle
+            int queued = 0;
+            for (int slot = 0; slot < capacity; slot++) {
+                if (counts[slot] == 1) {
+                    queue[queued++] = slot;
+                }
+            }
+            int stacked = 0;
+            while (queued > 0) {
+                int slot = queue[--queued];
+                if (counts[slot] != 1) {
+                    continue;
+                }
+                long h = xorHashes[slot];
+                stackHashes[stacked] = h;
+                stackSlots[stacked++] = slot;
+                for (int j = 0; j < 3; j++) {
+                    int other = slot(h, j, blockLength);
+                    xorHashes[other] ^= h;
+                    if (--counts[other] == 1) {
+                        queue[queued++] = other;
+                    }
+                }
+            }
+            if (stacked < size) {
+                continue;
+            }
+
+            // Each key's slot is still free when the key is assigned in reverse peeling order
+            byte[] fingerprints = new byte[capacity];
+            for (int i = stacked - 1; i >= 0; i--) {
+                long h = stackHashes[i];
+                int slot = stackSlots[i];
+                fingerprints[slot] = (byte) (fingerprint(h)
+                        ^ fingerprints[slot(h, 0, blockLength)]
+                        ^ fingerprints[slot(h, 1, blockLength)]
+                        ^ fingerprints[slot(h, 2, blockLength)]);
+            }
+            return new Xor8Filter(seed, blockLength, fingerprints);
+        }
+        throw new IllegalStateException("Failed to build xor filter over " + size + " keys");
+    }
+
+    @Override
+    public boolean mightContain(String key) {
+        return mightContain(KeyHash.hash(key));
+    }
+
+    @Override
+    public boolean mightContain(LookupKey key) {
+        return mightContain(key.hash);
+    }
+
+    public boolean mightContain(long hash) {
+        long h = mix(hash + seed);
+        int f = fingerprint(h) ^ fingerprints[slot(h, 0, blockLength)]
+                ^ fingerprints[slot(h, 1, blockLength)]
+                ^ fingerprints[slot(h, 2, blockLength)];
+        return (f & 0xFF) == 0;
+    }
+
+    private static int fingerprint(long h) {
+        return (int) (h ^ h >>> 32);
+    }
+
+    // Slot of the hash in the given third of the table, mapped onto it without a division
+    private static int slot(long h, int third, int blockLength) {
+        int r = (int) Long.rotateLeft(h, 21 * third);
+        return (int) (((r & 0xFFFFFFFFL) * blockLength) >>> 32) + third * blockLength;
+    }
+
+    // Finalizer of MurmurHash3, so that each seed gives an independent set of slots
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    @Override
+    public void writeTo(OutputStream out) throws IOException {
+        DataOutputStream data = new DataOutputStream(out);
+        data.writeLong(seed);
+        data.writeInt(blockLength);
+        data.write(fingerprints);
+        data.flush();
+    }
+
+    public static Xor8Filter readFrom(ByteBuffer in) throws IOException {
+        long seed = in.getLong();
+        int blockLength = in.getInt();
+        if (blockLength < 1 || in.remaining() != 3L * blockLength) {
+            throw new IOException("Corrupt xor filter: block length " + blockLength + ", " + in.remaining() + " bytes");
+        }
+        byte[] fingerprints = new byte[3 * blockLength];
+        in.get(fingerprints);
+        return new Xor8Filter(seed, blockLength, fingerprints);
+    }
+}
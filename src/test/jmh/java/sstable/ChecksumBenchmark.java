@@ -0,0 +1,102 @@
+package sstable;
+
+import memtable.Memtable;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import util.ChecksumVerification;
+import util.CompressionType;
+import util.DBOptions;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+import java.util.zip.CRC32C;
+
+// Cost of block checksums: raw CRC32C throughput against CRC32, and point lookups that read every block from
+// the mapping (no block cache) with and without verification.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+public class ChecksumBenchmark {
+    @Param({"4096", "65536"})
+    public int blockSize;
+
+    @Param({"NONE", "ALWAYS"})
+    public ChecksumVerification verification;
+
+    public byte[] block;
+    public ByteBuffer directBlock;
+    public String[] keys;
+    public SSTable sstable;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        block = new byte[blockSize];
+        new Random(12345).nextBytes(block);
+        directBlock = ByteBuffer.allocateDirect(blockSize);
+        directBlock.put(block).flip();
+
+        Files.createDirectories(Path.of("data"));
+        Memtable memtable = new Memtable();
+        keys = new String[100_000];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = String.format("key%08d", i);
+            memtable.put(keys[i], "value" + i);
+        }
+        // Uncompressed and mapped, so that the checksum is the only per-block work besides decoding
+        sstable = SSTable.createSSTableFromMemtable(memtable, new DBOptions().setCompression(CompressionType.NONE), 0);
+        sstable.setMmapReads(true);
+        sstable.setChecksumVerification(verification);
+    }
+
+    @TearDown
+    public void tearDown() {
+        sstable.delete();
+    }
+
+    @Benchmark
+    public long crc32c() {
+        CRC32C crc = new CRC32C();
+        crc.update(block, 0, block.length);
+        return crc.getValue();
+    }
+
+    @Benchmark
+    public long crc32cDirect() {
+        CRC32C crc = new CRC32C();
+        crc.update(directBlock.duplicate());
+        return crc.getValue();
+    }
+
+    @Benchmark
+    public long crc32() {
+        CRC32 crc = new CRC32();
+        crc.update(block, 0, block.length);
+        return crc.getValue();
+    }
+
+    @Benchmark
+    public void lookup(Blackhole bh) {
+        bh.consume(sstable.get(keys[ThreadLocalRandom.current().nextInt(keys.length)]));
+    }
+
+    public static void main(String[] args) throws Exception {
+        Options opt = new OptionsBuilder()
+                .include(ChecksumBenchmark.class.getSimpleName())
+                .forks(1)
+                .build();
+
+        new Runner(opt).run();
+    }
+}
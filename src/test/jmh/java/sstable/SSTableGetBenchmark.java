@@ -4,6 +4,7 @@ import core.DB;
 import lsm.LSMGetBenchmark;
 import org.openjdk.jmh.annotations.*;
 import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.profile.GCProfiler;
 import org.openjdk.jmh.runner.Runner;
 import org.openjdk.jmh.runner.options.Options;
 import org.openjdk.jmh.runner.options.OptionsBuilder;
@@ -26,6 +27,9 @@ public class SSTableGetBenchmark {
 
     public byte[][] keys;
     public byte[][] values;
+    // Encoded up front so that the gc profiler only sees what the lookup itself allocates
+    public String[] keyStrings;
+    public String[] missingKeyStrings;
     public DB db;
 
     @Setup(Level.Trial)
@@ -33,11 +37,17 @@ public class SSTableGetBenchmark {
         db = new DB();
         keys = new byte[keyCount][16];
         values = new byte[keyCount][100];
+        keyStrings = new String[keyCount];
+        missingKeyStrings = new String[keyCount];
 
         Random r = new Random(12345);
         for (int i = 0; i < keyCount; i++) {
             r.nextBytes(keys[i]);
             String keyStr = Base64.getEncoder().encodeToString(keys[i]);
+            keyStrings[i] = keyStr;
+            byte[] miss = keys[i].clone();
+            miss[0] ^= 0xFF;
+            missingKeyStrings[i] = Base64.getEncoder().encodeToString(miss);
             r.nextBytes(values[i]);
             String valueStr = Base64.getEncoder().encodeToString(values[i]);
             db.put(keyStr, valueStr);
@@ -54,20 +64,14 @@ public class SSTableGetBenchmark {
     @Benchmark
     public void positiveGet(Blackhole bh) {
         int idx = ThreadLocalRandom.current().nextInt(keyCount);
-        String keyStr = Base64.getEncoder().encodeToString(keys[idx]);
-        String result = db.sstableService.get(keyStr);
+        String result = db.sstableService.get(keyStrings[idx]);
         bh.consume(result);  // prevent JVM from optimizing away
     }
 
     @Benchmark
     public void negativeGet(Blackhole bh) {
         int idx = ThreadLocalRandom.current().nextInt(keyCount);
-        byte[] base = keys[idx];
-        byte[] miss = base.clone();
-        miss[0] ^= 0xFF;
-
-        String missingKey = Base64.getEncoder().encodeToString(miss);
-        String result = db.sstableService.get(missingKey);  // should return null
+        String result = db.sstableService.get(missingKeyStrings[idx]);  // should return null
         bh.consume(result);
     }
 
@@ -75,6 +79,7 @@ public class SSTableGetBenchmark {
         Options opt = new OptionsBuilder()
                 .include(SSTableGetBenchmark.class.getSimpleName())
                 .forks(1)
+                .addProfiler(GCProfiler.class) // gc.alloc.rate.norm is the bytes allocated per lookup
                 .jvmArgs("-Xms7g", "-Xmx7g")
                 .build();
 
@@ -0,0 +1,59 @@
+package core;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import util.DBOptions;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class DBTest {
+
+    @AfterEach
+    void cleanup() throws IOException {
+        Path dataDir = Path.of("data");
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dataDir,
+                "{CURRENT,MANIFEST-*,wal-*.log,sstable_*.sst,blob_*.blob}")) {
+            for (Path file : files) {
+                Files.delete(file);
+            }
+        }
+        if (Files.list(dataDir).findAny().isEmpty()) {
+            Files.delete(dataDir);
+        }
+    }
+
+    @Test
+    void shouldLookUpABatchOfKeysLikeGet() throws Exception {
+        DBOptions options = new DBOptions().setBlobValueThreshold(100);
+        String large = "x".repeat(200);
+        try (DB db = new DB(options)) {
+            db.put("a", "a-value");
+            db.put("b", "b-value");
+            db.put("c", large + "c");
+            db.put("d", "d-value");
+        }
+
+        // Closing flushed the values above to a table; the memtable now shadows some of them
+        try (DB db = new DB(options)) {
+            db.delete("b");
+            db.put("d", large + "d");
+            db.put("e", "e-value");
+
+            List<String> keys = List.of("e", "a", "missing", "b", "c", "a", "d", "c", "zz");
+            List<String> values = db.multiGet(keys);
+            assertEquals(Arrays.asList("e-value", "a-value", null, "<TOMBSTONE>", large + "c", "a-value",
+                    large + "d", large + "c", null), values);
+            for (int i = 0; i < keys.size(); i++) {
+                assertEquals(db.get(keys.get(i)), values.get(i), keys.get(i));
+            }
+            assertEquals(1, db.manifest.getBlobStore().fileCount());
+        }
+    }
+}
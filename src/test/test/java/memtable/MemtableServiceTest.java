@@ -0,0 +1,141 @@
+package memtable;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import sstable.SSTableService;
+import util.DBOptions;
+import util.IOUtils;
+import util.Manifest;
+import util.WAL;
+
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MemtableServiceTest {
+
+    @AfterEach
+    void cleanup() throws IOException {
+        Path dataDir = Path.of("data");
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dataDir,
+                "{CURRENT,MANIFEST-*,wal-*.log,sstable_*.sst}")) {
+            for (Path file : files) {
+                Files.delete(file);
+            }
+        }
+        if (Files.list(dataDir).findAny().isEmpty()) {
+            Files.delete(dataDir);
+        }
+    }
+
+    @Test
+    void shouldKeepTheWritesOfAWalInTheOriginalFormat() throws IOException {
+        DBOptions options = new DBOptions();
+        Manifest manifest = new Manifest(options);
+        String legacyPath = "./data/wal-0.log";
+        try (DataOutputStream out = new DataOutputStream(new FileOutputStream(legacyPath))) {
+            IOUtils.writeString(out, "key1");
+            IOUtils.writeString(out, "value1");
+            IOUtils.writeString(out, "key2");
+            IOUtils.writeString(out, "value2");
+        }
+        long legacyLength = Files.size(Path.of(legacyPath));
+        manifest.addWAL(legacyPath);
+
+        MemtableService service = new MemtableService(manifest, options);
+        assertEquals("value1", service.get("key1"));
+        assertEquals("value2", service.get("key2"));
+        // New writes go to a new WAL, and the old one is kept until its memtable is flushed
+        assertEquals(2, manifest.walPaths.size());
+        assertEquals(legacyLength, Files.size(Path.of(legacyPath)));
+        service.put("key3", "value3");
+        assertEquals("value3", service.get("key3"));
+
+        service.close();
+        assertFalse(Files.exists(Path.of(legacyPath)));
+        assertEquals("value1", manifest.getSSTables(0).get(1).get("key1"));
+        manifest.close();
+    }
+
+    @Test
+    void shouldKeepFindingKeysWhileCloseFlushesThem() throws Exception {
+        DBOptions options = new DBOptions();
+        Manifest manifest = new Manifest(options);
+        MemtableService service = new MemtableService(manifest, options);
+        for (int i = 0; i < 1000; i++) {
+            service.put("key" + i, "value" + i);
+        }
+        AtomicBoolean closed = new AtomicBoolean();
+        AtomicInteger misses = new AtomicInteger();
+        SSTableService sstables = new SSTableService(manifest);
+        Thread reader = new Thread(() -> {
+            while (!closed.get()) {
+                for (int i = 0; i < 1000; i += 97) {
+                    String value = service.get("key" + i);
+                    if (value == null) {
+                        value = sstables.get("key" + i);
+                    }
+                    if (!("value" + i).equals(value)) {
+                        misses.incrementAndGet();
+                    }
+                }
+            }
+        });
+        reader.start();
+        service.close();
+        closed.set(true);
+        reader.join();
+        assertEquals(0, misses.get());
+        manifest.close();
+    }
+
+    @Test
+    void shouldRecoverSeveralWalsInOrderAndTruncateOnlyTheLast() throws IOException {
+        DBOptions options = new DBOptions().setRecoveryThreads(3);
+        Manifest manifest = new Manifest(options);
+        String[] walPaths = {"./data/wal-1.log", "./data/wal-2.log", "./data/wal-3.log"};
+        for (int i = 0; i < walPaths.length; i++) {
+            WAL wal = new WAL(walPaths[i]);
+            wal.writeEntry("shared", "value" + (i + 1));
+            wal.writeEntry("only" + (i + 1), "value");
+            wal.close();
+            // A torn tail on every file
+            Files.write(Path.of(walPaths[i]), new byte[]{1, 2, 3}, StandardOpenOption.APPEND);
+            manifest.addWAL(walPaths[i]);
+        }
+        long[] lengths = new long[walPaths.length];
+        for (int i = 0; i < walPaths.length; i++) {
+            lengths[i] = Files.size(Path.of(walPaths[i]));
+        }
+
+        MemtableService service = new MemtableService(manifest, options);
+        assertEquals("value3", service.get("shared"));
+        for (int i = 1; i <= 3; i++) {
+            assertEquals("value", service.get("only" + i));
+        }
+        // The older WALs became the flush queue, oldest first
+        assertEquals("value1", service.peekFlushableMemtable().get("shared"));
+        assertNull(service.peekFlushableMemtable().get("only2"));
+
+        // Only the active WAL is appended to again, so only its torn tail is cut
+        assertEquals(lengths[0], Files.size(Path.of(walPaths[0])));
+        assertEquals(lengths[1], Files.size(Path.of(walPaths[1])));
+        assertEquals(lengths[2] - 3, Files.size(Path.of(walPaths[2])));
+
+        service.put("shared", "value4");
+        service.close();
+        // Every recovered memtable was flushed, newest table first, and only the fresh active WAL is left
+        assertEquals(1, manifest.walPaths.size());
+        assertEquals("value4", manifest.getSSTables(0).get(0).get("shared"));
+        assertEquals("value1", manifest.getSSTables(0).get(2).get("shared"));
+        manifest.close();
+    }
+}
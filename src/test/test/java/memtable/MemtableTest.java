@@ -3,8 +3,15 @@ package memtable;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -49,4 +56,101 @@ public class MemtableTest {
         assertEquals(Map.entry("key3", "value3"), it.next());
         assertFalse(it.hasNext());
     }
-}
\ No newline at end of file
+
+    @Test
+    public void shouldAcceptConcurrentWriters() throws InterruptedException {
+        int threads = 8;
+        int keysPerThread = 1000;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        for (int t = 0; t < threads; t++) {
+            int thread = t;
+            executor.submit(() -> {
+                for (int i = 0; i < keysPerThread; i++) {
+                    memtable.put(String.format("key%d-%04d", thread, i), "value" + i);
+                }
+            });
+        }
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+
+        long expectedSize = 0;
+        for (int t = 0; t < threads; t++) {
+            for (int i = 0; i < keysPerThread; i++) {
+                String key = String.format("key%d-%04d", t, i);
+                assertEquals("value" + i, memtable.get(key));
+                expectedSize += 4 + key.getBytes().length + 4 + ("value" + i).getBytes().length;
+            }
+        }
+        assertEquals(expectedSize, memtable.size());
+    }
+
+    @Test
+    public void shouldPutGetAndIterateOffHeap() {
+        Memtable offHeap = Memtable.offHeap();
+        offHeap.put("key2", "value2");
+        offHeap.put("key1", "value1");
+        offHeap.put("key3", "value3");
+        offHeap.put("key2", "newvalue2");
+
+        assertEquals("newvalue2", offHeap.get("key2"));
+        assertNull(offHeap.get("key4"));
+
+        long expectedSize = 0;
+        for (String[] kv : new String[][]{{"key1", "value1"}, {"key2", "newvalue2"}, {"key3", "value3"}}) {
+            expectedSize += 4 + kv[0].getBytes().length + 4 + kv[1].getBytes().length;
+        }
+        assertEquals(expectedSize, offHeap.size());
+
+        Iterator<Map.Entry<String, String>> it = offHeap.iterator();
+        assertEquals(Map.entry("key1", "value1"), it.next());
+        assertEquals(Map.entry("key2", "newvalue2"), it.next());
+        assertEquals(Map.entry("key3", "value3"), it.next());
+        assertFalse(it.hasNext());
+    }
+
+    @Test
+    public void shouldBulkLoadSortedEntries() {
+        assertBulkLoad(new Memtable());
+    }
+
+    @Test
+    public void shouldBulkLoadSortedEntriesOffHeap() {
+        assertBulkLoad(Memtable.offHeap());
+    }
+
+    // Loads every other key, then checks lookups, order and that later inserts still find their place at every
+    // level of the skip list
+    private static void assertBulkLoad(Memtable memtable) {
+        TreeMap<String, String> expected = new TreeMap<>();
+        for (int i = 0; i < 5000; i += 2) {
+            expected.put(String.format("key%05d", i), "value" + i);
+        }
+        // Keys on which UTF-8 byte order and String order disagree
+        expected.put("\uFF21", "fullwidth");
+        expected.put("\uD83D\uDE00", "supplementary");
+        memtable.putAllSorted(expected);
+
+        long expectedSize = 0;
+        for (Map.Entry<String, String> entry : expected.entrySet()) {
+            assertEquals(entry.getValue(), memtable.get(entry.getKey()));
+            expectedSize += 4 + entry.getKey().getBytes(StandardCharsets.UTF_8).length
+                    + 4 + entry.getValue().getBytes(StandardCharsets.UTF_8).length;
+        }
+        assertEquals(expectedSize, memtable.size());
+        assertNull(memtable.get("key00001"));
+        assertNull(memtable.get("key99999"));
+
+        for (int i = 1; i < 5000; i += 2) {
+            expected.put(String.format("key%05d", i), "value" + i);
+            memtable.put(String.format("key%05d", i), "value" + i);
+        }
+        expected.put("key00100", "overwritten");
+        memtable.put("key00100", "overwritten");
+        for (Map.Entry<String, String> entry : expected.entrySet()) {
+            assertEquals(entry.getValue(), memtable.get(entry.getKey()));
+        }
+        List<Map.Entry<String, String>> iterated = new ArrayList<>();
+        memtable.iterator().forEachRemaining(iterated::add);
+        assertEquals(new ArrayList<>(expected.entrySet()), iterated);
+    }
+}
@@ -0,0 +1,55 @@
+package memtable;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class WriteBatchTest {
+
+    @Test
+    public void shouldApplyOperationsInOrder() {
+        WriteBatch batch = new WriteBatch()
+                .put("key1", "value1")
+                .put("key2", "value2")
+                .delete("key1");
+        assertEquals(3, batch.count());
+
+        Memtable memtable = new Memtable();
+        batch.applyTo(memtable);
+        assertEquals("<TOMBSTONE>", memtable.get("key1"));
+        assertEquals("value2", memtable.get("key2"));
+    }
+
+    @Test
+    public void shouldRoundTripThroughEncoding() {
+        WriteBatch batch = new WriteBatch();
+        for (int i = 0; i < 100; i++) {
+            batch.put("key" + i, "value" + i);
+        }
+        batch.delete("key7");
+
+        List<Map.Entry<String, String>> decoded = new ArrayList<>();
+        WriteBatch.decode(ByteBuffer.wrap(batch.encode()), (key, value) -> decoded.add(Map.entry(key, value)));
+
+        assertEquals(101, decoded.size());
+        assertEquals(Map.entry("key0", "value0"), decoded.get(0));
+        assertEquals(Map.entry("key99", "value99"), decoded.get(99));
+        assertEquals(Map.entry("key7", "<TOMBSTONE>"), decoded.get(100));
+    }
+
+    @Test
+    public void shouldEncodeEmptyAfterClear() {
+        WriteBatch batch = new WriteBatch().put("key1", "value1");
+        batch.clear();
+        assertEquals(0, batch.count());
+
+        List<String> decoded = new ArrayList<>();
+        WriteBatch.decode(ByteBuffer.wrap(batch.encode()), (key, value) -> decoded.add(key));
+        assertTrue(decoded.isEmpty());
+    }
+}
@@ -0,0 +1,188 @@
+package sstable;
+
+import memtable.Memtable;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import util.ChecksumVerification;
+import util.DBOptions;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class BlobStoreTest {
+
+    private static Path dataDir;
+
+    @BeforeAll
+    static void setup() throws IOException {
+        dataDir = Path.of("data");
+        if (!Files.exists(dataDir)) {
+            Files.createDirectory(dataDir);
+        }
+    }
+
+    @AfterAll
+    static void teardown() throws IOException {
+        if (Files.exists(dataDir) && Files.list(dataDir).findAny().isEmpty()) {
+            Files.delete(dataDir);
+        }
+    }
+
+    @Test
+    void shouldKeepLargeValuesInBlobFilesAndCollectThem() throws IOException {
+        DBOptions options = new DBOptions().setBlobValueThreshold(1000).setBlobGarbageRatio(0.5);
+        BlobStore store = new BlobStore("data", options, null, new AtomicLong(1)::getAndIncrement);
+
+        Memtable first = new Memtable();
+        for (int i = 0; i < 100; i++) {
+            first.put(key(i), largeValue("a", i));
+        }
+        first.put("small", "inline");
+        SSTable older = flush(first, options, store);
+        assertEquals(largeValue("a", 7), older.get(key(7)));
+        assertEquals("inline", older.get("small"));
+        assertTrue(Files.size(Path.of(older.getFilePath())) < 100 * 1000);
+        assertEquals(1, store.fileCount());
+
+        // Overwrites 60 of the values in the first blob file and deletes one more
+        Memtable second = new Memtable();
+        for (int i = 0; i < 60; i++) {
+            second.put(key(i), largeValue("b", i));
+        }
+        second.put(key(60), "<TOMBSTONE>");
+        SSTable newer = flush(second, options, store);
+
+        List<SSTable> merged = compact(List.of(newer, older), options, store);
+        assertEquals(2, store.fileCount());
+        assertTrue(store.garbageBytes() > 61 * 5000);
+        assertValues(merged.get(0));
+
+        // The first file is now mostly garbage, so the next compaction moves its live values and deletes it
+        List<SSTable> collected = compact(merged, options, store);
+        assertEquals(2, store.fileCount());
+        assertEquals(0, store.garbageBytes());
+        assertValues(collected.get(0));
+        collected.get(0).delete();
+
+        try (Stream<Path> blobFiles = Files.list(dataDir).filter(p -> p.toString().endsWith(".blob"))) {
+            for (Path blobFile : blobFiles.toList()) {
+                Files.delete(blobFile);
+            }
+        }
+    }
+
+    @Test
+    void shouldDeleteTheBlobFileOfAnAbandonedWriter() throws IOException {
+        DBOptions options = new DBOptions().setBlobValueThreshold(10);
+        BlobStore store = new BlobStore("data", options, null, new AtomicLong(1)::getAndIncrement);
+        Memtable memtable = new Memtable();
+        memtable.put("key", "a value long enough for a blob file");
+
+        try (BlobStore.Writer blobs = store.newWriter()) {
+            SSTable.createSSTableFromMemtable(memtable, options, 0, blobs).delete();
+        }
+        assertEquals(0, store.fileCount());
+        try (Stream<Path> files = Files.list(dataDir)) {
+            assertTrue(files.noneMatch(p -> p.toString().endsWith(".blob")));
+        }
+    }
+
+    @Test
+    void shouldKeepTombstonesOutOfBlobFiles() throws IOException {
+        DBOptions options = new DBOptions().setBlobValueThreshold(1);
+        BlobStore store = new BlobStore("data", options, null, new AtomicLong(1)::getAndIncrement);
+        Memtable memtable = new Memtable();
+        memtable.put("deleted", "<TOMBSTONE>");
+        SSTable table = flush(memtable, options, store);
+        assertEquals("<TOMBSTONE>", table.get("deleted"));
+        assertEquals(0, store.fileCount());
+
+        // Compaction recognizes the tombstone and drops the key
+        try (BlobStore.Writer blobs = store.newWriter()) {
+            assertTrue(SSTable.sortedRun("data", List.of(table), options, 1, blobs).isEmpty());
+        }
+        table.delete();
+    }
+
+    @Test
+    void shouldCheckBlobsAsTheChecksumVerificationSays() throws IOException {
+        for (ChecksumVerification verification : ChecksumVerification.values()) {
+            // A garbage ratio of 0 makes every compaction read the blob file
+            DBOptions options = new DBOptions().setBlobValueThreshold(10).setBlobGarbageRatio(0)
+                    .setChecksumVerification(verification);
+            BlobStore store = new BlobStore("data", options, null, new AtomicLong(1)::getAndIncrement);
+            Memtable memtable = new Memtable();
+            memtable.put("key", "a value long enough for a blob file");
+            SSTable table = flush(memtable, options, store);
+            Files.write(dataDir.resolve("blob_1.blob"), new byte[]{'b'}, StandardOpenOption.WRITE);
+
+            // Blobs never go through the block cache, so only ALWAYS checks lookups
+            if (verification == ChecksumVerification.ALWAYS) {
+                assertThrows(RuntimeException.class, () -> table.get("key"));
+            } else {
+                assertEquals("b value long enough for a blob file", table.get("key"), verification.name());
+            }
+            if (verification == ChecksumVerification.ALWAYS || verification == ChecksumVerification.COMPACTION_ONLY) {
+                assertThrows(IOException.class, () -> compact(List.of(table), options, store));
+                table.delete();
+            } else {
+                compact(List.of(table), options, store).get(0).delete();
+            }
+
+            try (Stream<Path> blobFiles = Files.list(dataDir).filter(p -> p.toString().endsWith(".blob"))) {
+                for (Path blobFile : blobFiles.toList()) {
+                    Files.delete(blobFile);
+                }
+            }
+        }
+    }
+
+    private static SSTable flush(Memtable memtable, DBOptions options, BlobStore store) throws IOException {
+        try (BlobStore.Writer blobs = store.newWriter()) {
+            SSTable table = SSTable.createSSTableFromMemtable(memtable, options, 0, blobs);
+            table.setBlobStore(store);
+            blobs.commit();
+            return table;
+        }
+    }
+
+    // Commits like the manifest does: the writer, then the deletion of the inputs and obsolete blob files
+    private static List<SSTable> compact(List<SSTable> tables, DBOptions options, BlobStore store) throws IOException {
+        try (BlobStore.Writer blobs = store.newWriter()) {
+            List<SSTable> output = SSTable.sortedRun("data", tables, options, 1, blobs);
+            blobs.commit();
+            for (SSTable table : tables) {
+                table.delete();
+            }
+            store.deleteObsoleteFiles();
+            assertEquals(1, output.size());
+            output.get(0).setBlobStore(store);
+            return output;
+        }
+    }
+
+    private static void assertValues(SSTable table) throws IOException {
+        for (int i = 0; i < 100; i++) {
+            String expected = i < 60 ? largeValue("b", i) : i == 60 ? null : largeValue("a", i);
+            assertEquals(expected, table.get(key(i)));
+        }
+        assertEquals("inline", table.get("small"));
+        assertEquals(100, table.getAllEntries().size());
+    }
+
+    private static String key(int i) {
+        return String.format("key%03d", i);
+    }
+
+    private static String largeValue(String prefix, int i) {
+        return (prefix + i + "-").repeat(2000).substring(0, 5000);
+    }
+}
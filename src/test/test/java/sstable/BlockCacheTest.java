@@ -0,0 +1,53 @@
+package sstable;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class BlockCacheTest {
+
+    @Test
+    public void shouldReturnCachedBlocks() {
+        BlockCache cache = new BlockCache(1024 * 1024, 4);
+        DataBlock block = block(1000);
+        assertNull(cache.get(1, 0));
+        cache.put(1, 0, block);
+        assertSame(block, cache.get(1, 0));
+        assertNull(cache.get(2, 0));
+        assertEquals(1, cache.getHitCount());
+        assertEquals(2, cache.getMissCount());
+    }
+
+    @Test
+    public void shouldEvictLeastRecentlyUsedBlocksBeyondCapacity() {
+        BlockCache cache = new BlockCache(10 * 1024, 1);
+        for (int i = 0; i < 100; i++) {
+            cache.put(1, i * 1000L, block(1000));
+            cache.get(1, 0); // keep the first block hot
+        }
+        assertTrue(cache.getUsage() <= cache.getCapacity());
+        assertNotNull(cache.get(1, 0));
+        assertNotNull(cache.get(1, 99 * 1000L));
+        assertNull(cache.get(1, 1000L));
+    }
+
+    @Test
+    public void shouldEvictEveryBlockOfATable() {
+        BlockCache cache = new BlockCache(1024 * 1024, 4);
+        for (int i = 0; i < 10; i++) {
+            cache.put(1, i * 1000L, block(1000));
+            cache.put(2, i * 1000L, block(1000));
+        }
+        cache.evictTable(1);
+        for (int i = 0; i < 10; i++) {
+            assertNull(cache.get(1, i * 1000L));
+            assertNotNull(cache.get(2, i * 1000L));
+        }
+    }
+
+    private static DataBlock block(int size) {
+        return new LegacyBlock(ByteBuffer.allocate(size));
+    }
+}
@@ -0,0 +1,63 @@
+package sstable;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class BlockIndexTest {
+
+    // Two keys per block, in String order, including keys whose separators end inside a multi-byte character
+    private static final String[] KEYS = {
+            "apple", "apricot", "banana", "band", "bandana", "café", "cafë", "zebra", "zebras", "😀", "😀😀", "￿"
+    };
+
+    @Test
+    public void shouldFindTheBlockOfEveryKey() throws IOException {
+        BlockIndex index = roundTrip(buildIndex());
+        assertEquals(KEYS.length / 2, index.blockCount());
+        for (int i = 0; i < KEYS.length; i++) {
+            int block = index.find(KEYS[i]);
+            assertEquals(i / 2, block, KEYS[i]);
+            assertEquals(100L * block, index.offset(block));
+            assertEquals(100L, index.length(block));
+        }
+        // Absent keys between two blocks go to the block whose separator they pass, which reports them missing
+        assertEquals(0, index.find("apricots"));
+        assertEquals(2, index.find("bandan"));
+        assertEquals(2, index.find("café0"));
+        assertEquals(5, index.find("😀😀😀"));
+    }
+
+    @Test
+    public void shouldKeepSeparatorsShort() {
+        byte[] separator = BlockIndex.shortestSeparator(bytes("user:000123"), bytes("user:000456"));
+        assertEquals("user:0004", new String(separator, StandardCharsets.UTF_8));
+        assertArrayEquals(bytes("ab"), BlockIndex.shortestSeparator(bytes("a"), bytes("abc")));
+    }
+
+    private static BlockIndex buildIndex() {
+        BlockIndex.Builder builder = new BlockIndex.Builder();
+        for (int i = 0; i < KEYS.length; i += 2) {
+            byte[] separator = i == 0 ? new byte[0] : BlockIndex.shortestSeparator(bytes(KEYS[i - 1]), bytes(KEYS[i]));
+            builder.add(separator, 100L * (i / 2), 100L);
+        }
+        return builder.build();
+    }
+
+    private static BlockIndex roundTrip(BlockIndex index) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        index.writeTo(new DataOutputStream(out));
+        return BlockIndex.readFrom(new DataInputStream(new ByteArrayInputStream(out.toByteArray())));
+    }
+
+    private static byte[] bytes(String key) {
+        return key.getBytes(StandardCharsets.UTF_8);
+    }
+}
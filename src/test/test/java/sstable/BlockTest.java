@@ -0,0 +1,102 @@
+package sstable;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class BlockTest {
+
+    @Test
+    public void shouldFindEveryKeyAcrossRestartIntervals() {
+        Block block = buildBlock(100);
+        for (int i = 0; i < 100; i++) {
+            assertEquals("value" + i, block.get(key(i)), "Expected value for " + key(i));
+        }
+    }
+
+    @Test
+    public void shouldReturnNullForMissingKeys() {
+        Block block = buildBlock(100);
+        assertNull(block.get("user:profile:"));
+        assertNull(block.get(key(10) + "0"));
+        assertNull(block.get("user:profile:99999"));
+    }
+
+    @Test
+    public void shouldIterateInOrder() {
+        Block block = buildBlock(40);
+        Iterator<Map.Entry<String, String>> it = block.iterator();
+        for (int i = 0; i < 40; i++) {
+            assertTrue(it.hasNext());
+            assertEquals(Map.entry(key(i), "value" + i), it.next());
+        }
+        assertFalse(it.hasNext());
+    }
+
+    @Test
+    public void shouldCompressSharedPrefixes() {
+        BlockBuilder builder = new BlockBuilder();
+        int rawSize = 0;
+        for (int i = 0; i < 100; i++) {
+            byte[] keyBytes = key(i).getBytes(StandardCharsets.UTF_8);
+            byte[] valueBytes = ("value" + i).getBytes(StandardCharsets.UTF_8);
+            builder.add(keyBytes, valueBytes);
+            rawSize += 4 + keyBytes.length + 4 + valueBytes.length;
+        }
+        assertTrue(builder.finish().length < rawSize / 2);
+    }
+
+    @Test
+    public void shouldFindKeysThatArePrefixesOfOrShareRestartPoints() {
+        BlockBuilder builder = new BlockBuilder();
+        String[] keys = new String[40];
+        for (int i = 0; i < keys.length; i++) {
+            // Each key extends the previous one, and restart points break the shared prefix chain
+            keys[i] = "k" + "x".repeat(i);
+            builder.add(keys[i].getBytes(StandardCharsets.UTF_8), ("value" + i).getBytes(StandardCharsets.UTF_8));
+        }
+        Block block = new Block(ByteBuffer.wrap(builder.finish()));
+        for (int i = 0; i < keys.length; i++) {
+            assertEquals("value" + i, block.get(keys[i]), "Expected value for key of length " + keys[i].length());
+        }
+        assertNull(block.get("k" + "x".repeat(40)));
+        assertNull(block.get("kxy"));
+    }
+
+    @Test
+    public void shouldLookUpNonAsciiKeys() {
+        String[] keys = {"caf\u00e9", "caf\u00e9s", "cafe\u4e2d", "caf\uD83D\uDE00", "caf\uE000"};
+        TreeMap<String, String> sorted = new TreeMap<>();
+        for (String key : keys) {
+            sorted.put(key, "v:" + key);
+        }
+        BlockBuilder builder = new BlockBuilder();
+        for (Map.Entry<String, String> entry : sorted.entrySet()) {
+            builder.add(entry.getKey().getBytes(StandardCharsets.UTF_8), entry.getValue().getBytes(StandardCharsets.UTF_8));
+        }
+        Block block = new Block(ByteBuffer.wrap(builder.finish()));
+        for (String key : keys) {
+            assertEquals("v:" + key, block.get(key));
+        }
+        assertNull(block.get("caf\u00e8"));
+        assertNull(block.get("caf\uD83D"));
+    }
+
+    private static Block buildBlock(int count) {
+        BlockBuilder builder = new BlockBuilder();
+        for (int i = 0; i < count; i++) {
+            builder.add(key(i).getBytes(StandardCharsets.UTF_8), ("value" + i).getBytes(StandardCharsets.UTF_8));
+        }
+        return new Block(ByteBuffer.wrap(builder.finish()));
+    }
+
+    private static String key(int i) {
+        return String.format("user:profile:%05d", i);
+    }
+}
@@ -0,0 +1,73 @@
+package sstable;
+
+import memtable.Memtable;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MappedFileTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void shouldReadAcrossChunkBoundaries() throws IOException {
+        byte[] contents = new byte[10_000];
+        for (int i = 0; i < contents.length; i++) {
+            contents[i] = (byte) (i * 31);
+        }
+        Path file = tempDir.resolve("table.sst");
+        Files.write(file, contents);
+
+        // 1 KB chunks stand in for the 1 GB chunks used for real tables
+        MappedFile mapped = new MappedFile(file.toString(), contents.length, 10);
+        for (int offset : new int[]{0, 100, 1000, 1024, 3000, 9000}) {
+            for (int size : new int[]{1, 24, 1000, 2500}) {
+                if (offset + size > contents.length) {
+                    continue;
+                }
+                ByteBuffer slice = mapped.slice(offset, size);
+                assertEquals(size, slice.limit());
+                for (int i = 0; i < size; i++) {
+                    assertEquals(contents[offset + i], slice.get(i), "offset " + offset + " size " + size);
+                }
+            }
+        }
+    }
+
+    @Test
+    void shouldRejectReadsOutsideTheMapping() throws IOException {
+        Path file = tempDir.resolve("table.sst");
+        Files.write(file, new byte[100]);
+        MappedFile mapped = new MappedFile(file.toString(), 80);
+        assertThrows(IOException.class, () -> mapped.slice(70, 20));
+    }
+
+    @Test
+    void shouldFailReadsOfADeletedTableInsteadOfMappingItAgain() throws IOException {
+        Files.createDirectories(Path.of("data"));
+        Memtable memtable = new Memtable();
+        for (int i = 0; i < 1_000; i++) {
+            memtable.put(String.format("key%08d", i), "value" + i);
+        }
+        SSTable sstable = SSTable.createSSTableFromMemtable(memtable);
+        sstable.setMmapReads(true);
+        assertEquals("value1", sstable.get("key00000001"));
+
+        sstable.delete();
+        RuntimeException e = assertThrows(RuntimeException.class, () -> sstable.get("key00000500"));
+        assertTrue(e.getCause().getMessage().startsWith("SSTable was deleted"), e.getCause().getMessage());
+        assertThrows(RuntimeException.class, () -> new SSTableIterator(sstable, 0).hasNext());
+        try (var files = Files.list(Path.of("data"))) {
+            if (files.findAny().isEmpty()) {
+                Files.delete(Path.of("data"));
+            }
+        }
+    }
+}
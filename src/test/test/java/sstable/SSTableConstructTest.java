@@ -4,8 +4,15 @@ import memtable.Memtable;
 import org.junit.jupiter.api.AfterAll;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.Test;
+import util.ChecksumVerification;
+import util.CompressionType;
+import util.DBOptions;
+import util.FilterType;
+import util.LookupKey;
 
 import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
@@ -78,4 +85,231 @@ public class SSTableConstructTest {
 
         sstable.delete();
     }
+
+    @Test
+    void shouldSizeFilterForTheKeysWritten() throws IOException {
+        // Far more keys than the old fixed filter was sized for
+        Memtable memtable = new Memtable();
+        for (int i = 0; i < 100_000; i++) {
+            memtable.put(String.format("key%08d", 2 * i), "v");
+        }
+        SSTable sstable = SSTable.createSSTableFromMemtable(memtable, new DBOptions().setBloomBitsPerKey(10), 0);
+
+        for (int i = 0; i < 100_000; i++) {
+            assertNull(sstable.get(String.format("key%08d", 2 * i + 1)));
+        }
+        double rate = sstable.getFilterFalsePositiveRate();
+        assertTrue(rate > 0 && rate < 0.02, "Expected about 1% false positives at 10 bits per key, got " + rate);
+
+        sstable.delete();
+    }
+
+    @Test
+    void shouldUseTheFilterConfiguredForTheLevel() throws IOException {
+        Memtable memtable = new Memtable();
+        for (int i = 0; i < 10_000; i++) {
+            memtable.put(String.format("key%08d", 2 * i), "v" + i);
+        }
+        DBOptions options = new DBOptions().setFilterType(2, FilterType.XOR8);
+        SSTable bloom = SSTable.createSSTableFromMemtable(memtable, options, 1);
+        SSTable xor = SSTable.createSSTableFromMemtable(memtable, options, 2);
+        // The xor filter takes about 9.8 bits per key where the bloom filter takes 10
+        assertTrue(Files.size(Path.of(xor.getFilePath())) < Files.size(Path.of(bloom.getFilePath())));
+
+        SSTable reopened = new SSTable(xor.getFilePath());
+        for (int i = 0; i < 10_000; i++) {
+            assertEquals("v" + i, reopened.get(String.format("key%08d", 2 * i)));
+            assertNull(reopened.get(String.format("key%08d", 2 * i + 1)));
+        }
+        double rate = reopened.getFilterFalsePositiveRate();
+        assertTrue(rate < 0.01, "Expected about 0.4% false positives from the xor filter, got " + rate);
+
+        bloom.delete();
+        xor.delete();
+    }
+
+    @Test
+    void shouldReadPartitionedIndexAndFilter() throws IOException {
+        Memtable memtable = new Memtable();
+        for (int i = 0; i < 20_000; i++) {
+            memtable.put(String.format("key%08d", 2 * i), "v" + i);
+        }
+        // Small partitions so that the table gets many of them
+        SSTable sstable = SSTable.createSSTableFromMemtable(memtable, new DBOptions().setMetadataPartitionSize(256), 0);
+        SSTable reopened = new SSTable(sstable.getFilePath());
+        reopened.setBlockCache(new BlockCache(1024 * 1024));
+
+        for (SSTable table : List.of(sstable, reopened)) {
+            for (int i = 0; i < 20_000; i++) {
+                assertEquals("v" + i, table.get(String.format("key%08d", 2 * i)));
+                assertNull(table.get(String.format("key%08d", 2 * i + 1)));
+            }
+            assertEquals(20_000, table.getAllEntries().size());
+            assertTrue(table.getFilterFalsePositiveRate() < 0.02);
+        }
+
+        sstable.delete();
+    }
+
+    @Test
+    void shouldDetectCorruptBlocks() throws IOException {
+        Memtable memtable = new Memtable();
+        for (int i = 0; i < 1_000; i++) {
+            memtable.put(String.format("key%08d", i), "v" + i);
+        }
+        SSTable sstable = SSTable.createSSTableFromMemtable(memtable, new DBOptions().setCompression(CompressionType.NONE), 0);
+        // Flip a bit in the value of key00000001, inside the first data block
+        try (RandomAccessFile file = new RandomAccessFile(sstable.getFilePath(), "rw")) {
+            file.seek(40);
+            int b = file.read();
+            file.seek(40);
+            file.write(b ^ 1);
+        }
+
+        SSTable unchecked = new SSTable(sstable.getFilePath());
+        unchecked.setChecksumVerification(ChecksumVerification.NONE);
+        assertEquals(1_000, unchecked.getAllEntries().size());
+
+        SSTable checked = new SSTable(sstable.getFilePath());
+        checked.setChecksumVerification(ChecksumVerification.ALWAYS);
+        RuntimeException e = assertThrows(RuntimeException.class, () -> checked.get("key00000001"));
+        assertTrue(e.getCause().getMessage().startsWith("Checksum mismatch"), e.getCause().getMessage());
+        assertThrows(IOException.class, checked::getAllEntries);
+
+        sstable.delete();
+    }
+
+    @Test
+    void shouldWriteTablesLargerThanTheWriteBuffer() throws IOException {
+        String value = "v".repeat(1000);
+        String path = "data/sstable_builder_test.sst";
+        SSTable written;
+        try (TableBuilder builder = new TableBuilder(path, new DBOptions().setCompression(CompressionType.NONE), 0)) {
+            for (int i = 0; i < 3_000; i++) {
+                builder.add(String.format("key%08d", i), value + i);
+            }
+            written = builder.finish();
+        }
+        assertTrue(Files.size(Path.of(path)) > 3_000_000);
+
+        SSTable reopened = new SSTable(path);
+        reopened.setChecksumVerification(ChecksumVerification.ALWAYS);
+        assertEquals(3_000, reopened.getEntryCount());
+        for (int i = 0; i < 3_000; i++) {
+            assertEquals(value + i, reopened.get(String.format("key%08d", i)));
+        }
+        written.delete();
+
+        // A builder closed before finish leaves no partial table behind
+        try (TableBuilder builder = new TableBuilder(path, new DBOptions(), 0)) {
+            builder.add("key", value);
+        }
+        assertFalse(Files.exists(Path.of(path)));
+    }
+
+    @Test
+    void shouldScanWithReadAheadWithoutFillingTheBlockCache() throws IOException {
+        Memtable memtable = new Memtable();
+        for (int i = 0; i < 5_000; i++) {
+            memtable.put(String.format("key%08d", i), "value" + i);
+        }
+        SSTable sstable = SSTable.createSSTableFromMemtable(memtable);
+        BlockCache cache = new BlockCache(1024 * 1024);
+        sstable.setBlockCache(cache);
+
+        // Chunks of a few blocks, and a buffer smaller than one block that has to grow
+        for (int readAhead : new int[]{10_000, 1_000}) {
+            SSTableIterator iterator = new SSTableIterator(sstable, readAhead);
+            for (int i = 0; i < 5_000; i++) {
+                assertTrue(iterator.hasNext());
+                Map.Entry<String, String> entry = iterator.next();
+                assertEquals(String.format("key%08d", i), entry.getKey());
+                assertEquals("value" + i, entry.getValue());
+            }
+            assertFalse(iterator.hasNext());
+            iterator.close();
+        }
+        assertEquals(0, cache.getUsage());
+
+        sstable.delete();
+    }
+
+    @Test
+    void shouldReadEachBlockOnceForABatchOfKeys() throws IOException {
+        Memtable memtable = new Memtable();
+        List<LookupKey> keys = new ArrayList<>();
+        for (int i = 0; i < 5_000; i++) {
+            memtable.put(String.format("key%08d", i), "value" + i);
+            keys.add(new LookupKey(String.format("key%08d", i)));
+        }
+        SSTable sstable = SSTable.createSSTableFromMemtable(memtable);
+        BlockCache cache = new BlockCache(1024 * 1024);
+        sstable.setBlockCache(cache);
+
+        String[] values = new String[keys.size()];
+        sstable.multiGet(keys, values, 0, keys.size());
+        for (int i = 0; i < 5_000; i++) {
+            assertEquals("value" + i, values[i]);
+        }
+        // One load per block, and no key went back to the cache for the block the previous key read
+        assertEquals(0, cache.getHitCount());
+        assertTrue(cache.getMissCount() > 1 && cache.getMissCount() < 5_000 / 10);
+
+        sstable.delete();
+    }
+
+    @Test
+    void shouldReopenFromTheFooterWithoutReadingDataBlocks() throws IOException {
+        Memtable memtable = new Memtable();
+        for (int i = 0; i < 2_000; i++) {
+            memtable.put(String.format("key%08d", i), "value" + i);
+        }
+        SSTable written = SSTable.createSSTableFromMemtable(memtable, new DBOptions().setCompression(CompressionType.NONE), 0);
+        // Garbage at the start of the first data block would break a scan, but not an open from the footer
+        try (RandomAccessFile file = new RandomAccessFile(written.getFilePath(), "rw")) {
+            file.seek(0);
+            file.writeInt(-1);
+        }
+
+        SSTable reopened = new SSTable(written.getFilePath());
+        assertEquals("key00000000", reopened.getMinKey());
+        assertEquals("key00001999", reopened.getMaxKey());
+        assertEquals(2_000, reopened.getEntryCount());
+        assertEquals(written.getDataLength(), reopened.getDataLength());
+        for (int i = 100; i < 2_000; i += 7) {
+            assertEquals("value" + i, reopened.get(String.format("key%08d", i)));
+        }
+        assertNull(reopened.get("key00002000"));
+        assertNull(reopened.get("key0000050"));
+
+        written.delete();
+    }
+
+    @Test
+    void shouldOpenTablesWithoutAFooterByScanningThem() throws IOException {
+        // Bare [key length][key][value length][value] records, as the original tables were written
+        String path = "data/sstable_unframed_test.sst";
+        try (RandomAccessFile file = new RandomAccessFile(path, "rw")) {
+            for (int i = 0; i < 500; i++) {
+                byte[] key = String.format("key%08d", i).getBytes(StandardCharsets.UTF_8);
+                byte[] value = ("value" + i).getBytes(StandardCharsets.UTF_8);
+                file.writeInt(key.length);
+                file.write(key);
+                file.writeInt(value.length);
+                file.write(value);
+            }
+        }
+
+        SSTable sstable = new SSTable(path);
+        assertEquals("key00000000", sstable.getMinKey());
+        assertEquals("key00000499", sstable.getMaxKey());
+        assertEquals(500, sstable.getEntryCount());
+        for (int i = 0; i < 500; i++) {
+            assertEquals("value" + i, sstable.get(String.format("key%08d", i)));
+        }
+        assertNull(sstable.get("key00000500"));
+        assertEquals(500, sstable.getAllEntries().size());
+
+        sstable.delete();
+    }
 }
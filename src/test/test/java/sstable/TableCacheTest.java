@@ -0,0 +1,79 @@
+package sstable;
+
+import memtable.Memtable;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TableCacheTest {
+
+    private static Path dataDir;
+
+    @BeforeAll
+    static void setup() throws IOException {
+        dataDir = Path.of("data");
+        if (!Files.exists(dataDir)) {
+            Files.createDirectory(dataDir);
+        }
+    }
+
+    @AfterAll
+    static void teardown() throws IOException {
+        if (Files.exists(dataDir) && Files.list(dataDir).findAny().isEmpty()) {
+            Files.delete(dataDir);
+        }
+    }
+
+    @Test
+    void shouldServeLookupsWithinTheOpenFileLimit() throws IOException {
+        TableCache tableCache = new TableCache(2);
+        List<SSTable> tables = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            Memtable memtable = new Memtable();
+            for (int i = 0; i < 100; i++) {
+                memtable.put("t" + t + "-key" + i, "value" + i);
+            }
+            SSTable table = SSTable.createSSTableFromMemtable(memtable);
+            table.setTableCache(tableCache);
+            tables.add(table);
+        }
+
+        for (int round = 0; round < 3; round++) {
+            for (int t = 0; t < 4; t++) {
+                assertEquals("value42", tables.get(t).get("t" + t + "-key42"));
+                assertTrue(tableCache.openFiles() <= 2);
+            }
+        }
+
+        for (SSTable table : tables) {
+            table.delete();
+        }
+        assertEquals(0, tableCache.openFiles());
+    }
+
+    @Test
+    void shouldKeepPinnedChannelOpenUntilReleased() throws IOException {
+        Memtable memtable = new Memtable();
+        memtable.put("key", "value");
+        SSTable table = SSTable.createSSTableFromMemtable(memtable);
+        TableCache tableCache = new TableCache(1);
+        table.setTableCache(tableCache);
+
+        TableCache.Handle handle = table.openFile();
+        tableCache.evict(0L); // unrelated id, no effect
+        tableCache.close();
+        assertTrue(handle.channel.isOpen(), "A channel in use must survive eviction");
+        handle.close();
+        assertFalse(handle.channel.isOpen());
+
+        table.delete();
+    }
+}
@@ -0,0 +1,52 @@
+package util;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class BlockedBloomFilterTest {
+
+    @Test
+    public void shouldContainEveryKeyAfterRoundTrip() throws IOException {
+        int count = 20000;
+        long[] hashes = new long[count];
+        for (int i = 0; i < count; i++) {
+            hashes[i] = KeyHash.hash("key" + i);
+        }
+        KeyFilter filter = FilterType.BLOCKED_BLOOM.build(hashes, count, 10);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        filter.writeTo(out);
+        KeyFilter restored = FilterType.BLOCKED_BLOOM.read(ByteBuffer.wrap(out.toByteArray()));
+
+        int falsePositives = 0;
+        for (int i = 0; i < count; i++) {
+            assertTrue(restored.mightContain("key" + i), "key" + i);
+            assertTrue(restored.mightContain(new LookupKey("key" + i)), "key" + i);
+            if (restored.mightContain("missing" + i)) {
+                falsePositives++;
+            }
+        }
+        assertTrue(falsePositives < count * 0.02, "false positives: " + falsePositives);
+    }
+
+    @Test
+    public void shouldHashEncodedBytesLikeStrings() {
+        for (String key : new String[]{"", "a", "exactly8", "longer than one word", "café", "😀", "\ud800x"}) {
+            byte[] bytes = key.getBytes(StandardCharsets.UTF_8);
+            assertEquals(KeyHash.hash(bytes, 0, bytes.length), KeyHash.hash(key), key);
+            assertEquals(KeyHash.hash(key), new LookupKey(key).hash, key);
+        }
+    }
+
+    @Test
+    public void shouldRejectCorruptFilter() {
+        assertThrows(IOException.class, () -> FilterType.BLOCKED_BLOOM.read(ByteBuffer.wrap(new byte[]{7, 0, 0, 0, 1, 0})));
+        assertThrows(IOException.class, () -> FilterType.fromId((byte) 9));
+    }
+}
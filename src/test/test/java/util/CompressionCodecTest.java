@@ -0,0 +1,54 @@
+package util;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CompressionCodecTest {
+
+    @Test
+    public void shouldRoundTripWithEveryCodec() throws IOException {
+        Random random = new Random(42);
+        for (CompressionType type : CompressionType.values()) {
+            for (int length : new int[]{0, 1, 3, 4, 15, 16, 300, 4000, 70000}) {
+                byte[] input = new byte[length + 6];
+                for (int i = 0; i < input.length; i++) {
+                    input[i] = (byte) (i % 3 == 0 ? random.nextInt(256) : 'a' + i % 7);
+                }
+                byte[] compressed = type.codec.compress(input, 3, length);
+                byte[] restored = type.codec.decompress(compressed, 0, compressed.length);
+                assertArrayEquals(Arrays.copyOfRange(input, 3, 3 + length), restored, type + " length " + length);
+            }
+        }
+    }
+
+    @Test
+    public void shouldShrinkRepetitiveBlocks() throws IOException {
+        StringBuilder block = new StringBuilder();
+        for (int i = 0; i < 200; i++) {
+            block.append("user:profile:").append(i).append("{\"status\":\"active\",\"plan\":\"free\"}");
+        }
+        byte[] input = block.toString().getBytes(StandardCharsets.UTF_8);
+        for (CompressionType type : new CompressionType[]{CompressionType.LZ, CompressionType.DEFLATE}) {
+            byte[] compressed = type.codec.compress(input, 0, input.length);
+            assertTrue(compressed.length < input.length / 3, type + " compressed to " + compressed.length);
+            assertArrayEquals(input, type.codec.decompress(compressed, 0, compressed.length));
+        }
+    }
+
+    @Test
+    public void shouldRejectCorruptInput() {
+        byte[] input = new byte[1000];
+        for (CompressionType type : new CompressionType[]{CompressionType.LZ, CompressionType.DEFLATE}) {
+            byte[] compressed = type.codec.compress(input, 0, input.length);
+            assertThrows(IOException.class, () -> type.codec.decompress(compressed, 0, compressed.length - 2));
+            assertThrows(IOException.class, () -> type.codec.decompress(new byte[]{0x7F, 0, 0, 0, 0}, 0, 5));
+        }
+        assertThrows(IOException.class, () -> CompressionType.fromId((byte) 9));
+    }
+}
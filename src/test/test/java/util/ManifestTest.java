@@ -0,0 +1,132 @@
+package util;
+
+import memtable.Memtable;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import sstable.BlobStore;
+import sstable.SSTable;
+import sstable.SSTableService;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ManifestTest {
+
+    private final List<SSTable> tables = new ArrayList<>();
+
+    @AfterEach
+    void cleanup() throws IOException {
+        for (SSTable table : tables) {
+            table.delete();
+        }
+        Path dataDir = Path.of("data");
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dataDir, "{CURRENT,MANIFEST-*,blob_*.blob}")) {
+            for (Path file : files) {
+                Files.delete(file);
+            }
+        }
+        if (Files.list(dataDir).findAny().isEmpty()) {
+            Files.delete(dataDir);
+        }
+    }
+
+    @Test
+    void shouldFindTheOnlyTableWhoseRangeHoldsTheKey() throws IOException {
+        Manifest manifest = new Manifest(new DBOptions().setMaxOpenFiles(0));
+        // Key ranges [b, d], [f, h] and [j, l], handed over out of order
+        for (char first : new char[]{'j', 'b', 'f'}) {
+            tables.add(table(first, (char) (first + 1), (char) (first + 2)));
+        }
+        manifest.replace(0, List.of(), tables, null);
+
+        assertEquals("b", manifest.findSSTable(1, "b").getMinKey());
+        assertEquals("b", manifest.findSSTable(1, "c0").getMinKey());
+        assertEquals("f", manifest.findSSTable(1, "h").getMinKey());
+        assertEquals("j", manifest.findSSTable(1, "k").getMinKey());
+        assertNull(manifest.findSSTable(1, "a"));
+        assertNull(manifest.findSSTable(1, "e"));
+        assertNull(manifest.findSSTable(1, "m"));
+        assertNull(manifest.findSSTable(2, "c"));
+
+        // A level-0 table shadows the deeper levels
+        Memtable memtable = new Memtable();
+        memtable.put("c", "newer");
+        SSTable newer = SSTable.createSSTableFromMemtable(memtable);
+        tables.add(newer);
+        manifest.addSSTable(0, newer);
+        SSTableService service = new SSTableService(manifest);
+        assertEquals("newer", service.get("c"));
+        assertEquals("d-value", service.get("d"));
+        assertEquals("g-value", service.get("g"));
+        assertNull(service.get("e"));
+        manifest.close();
+    }
+
+    @Test
+    void shouldLookUpABatchOfKeysLikeGet() throws IOException {
+        DBOptions options = new DBOptions().setMaxOpenFiles(0).setMultiGetThreads(2);
+        Manifest manifest = new Manifest(options);
+        for (char first : new char[]{'j', 'b', 'f'}) {
+            tables.add(table(first, (char) (first + 1), (char) (first + 2)));
+        }
+        manifest.replace(0, List.of(), tables, null);
+        Memtable memtable = new Memtable();
+        memtable.put("c", "newer");
+        memtable.put("k", "newer");
+        SSTable newer = SSTable.createSSTableFromMemtable(memtable);
+        tables.add(newer);
+        manifest.addSSTable(0, newer);
+
+        SSTableService service = new SSTableService(manifest, options);
+        List<String> keys = List.of("a", "b", "c", "e", "g", "h", "k", "l", "m");
+        String[] values = new String[keys.size()];
+        service.multiGet(keys, values);
+        for (int i = 0; i < keys.size(); i++) {
+            assertEquals(service.get(keys.get(i)), values[i], keys.get(i));
+        }
+        assertEquals(6, Arrays.stream(values).filter(Objects::nonNull).count());
+        service.close();
+        manifest.close();
+    }
+
+    @Test
+    void shouldNumberBlobFilesWithoutReusingNumbersAfterAReopen() throws IOException {
+        DBOptions options = new DBOptions().setBlobValueThreshold(10);
+        Manifest manifest = new Manifest(options);
+        flushBlob(manifest, options);
+        manifest.close();
+        assertTrue(Files.exists(Path.of("data/blob_1.blob")));
+
+        Manifest reopened = new Manifest(options);
+        flushBlob(reopened, options);
+        reopened.close();
+        assertTrue(Files.exists(Path.of("data/blob_2.blob")));
+        assertEquals(2, reopened.getBlobStore().fileCount());
+    }
+
+    private void flushBlob(Manifest manifest, DBOptions options) throws IOException {
+        Memtable memtable = new Memtable();
+        memtable.put("key", "a value long enough for a blob file");
+        try (BlobStore.Writer blobs = manifest.getBlobStore().newWriter()) {
+            SSTable table = SSTable.createSSTableFromMemtable(memtable, options, 0, blobs);
+            tables.add(table);
+            manifest.addSSTable(0, table, blobs);
+        }
+    }
+
+    private static SSTable table(char... keys) throws IOException {
+        Memtable memtable = new Memtable();
+        for (char key : keys) {
+            memtable.put(String.valueOf(key), key + "-value");
+        }
+        return SSTable.createSSTableFromMemtable(memtable);
+    }
+}
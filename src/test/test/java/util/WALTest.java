@@ -0,0 +1,462 @@
+package util;
+
+import memtable.Memtable;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class WALTest {
+
+    @TempDir
+    Path tempDirectory;
+
+    @Test
+    public void shouldReplayRecordsSpanningBlocks() throws IOException {
+        String path = tempDirectory.resolve("wal.log").toString();
+        String largeValue = "v".repeat(3 * WAL.BLOCK_SIZE);
+        WAL wal = new WAL(path);
+        wal.writeEntry("key1", "value1");
+        wal.writeEntry("key2", largeValue);
+        wal.writeEntry("key3", "value3");
+        wal.close();
+
+        Memtable memtable = new Memtable();
+        WAL.ReplayResult result = WAL.replay(memtable, path);
+        assertEquals(3, result.records);
+        assertEquals("value1", memtable.get("key1"));
+        assertEquals(largeValue, memtable.get("key2"));
+        assertEquals("value3", memtable.get("key3"));
+    }
+
+    @Test
+    public void shouldStopCleanlyAtTornTail() throws IOException {
+        String path = tempDirectory.resolve("wal.log").toString();
+        WAL wal = new WAL(path);
+        wal.writeEntry("key1", "value1");
+        wal.writeEntry("key2", "value2");
+        wal.close();
+
+        long intactLength;
+        try (RandomAccessFile file = new RandomAccessFile(path, "rw")) {
+            intactLength = file.length();
+            file.setLength(intactLength - 3);
+        }
+
+        Memtable memtable = new Memtable();
+        WAL.ReplayResult result = WAL.replay(memtable, path);
+        assertEquals(1, result.records);
+        assertEquals("value1", memtable.get("key1"));
+        assertNull(memtable.get("key2"));
+
+        // Appending after truncating the torn tail must keep the log readable
+        WAL.truncate(path, result.validLength);
+        wal = new WAL(path);
+        wal.writeEntry("key3", "value3");
+        wal.close();
+
+        memtable = new Memtable();
+        assertEquals(2, WAL.replay(memtable, path).records);
+        assertEquals("value3", memtable.get("key3"));
+    }
+
+    @Test
+    public void shouldStopAtChecksumMismatch() throws IOException {
+        String path = tempDirectory.resolve("wal.log").toString();
+        WAL wal = new WAL(path);
+        wal.writeEntry("key1", "value1");
+        wal.writeEntry("key2", "value2");
+        wal.close();
+
+        try (RandomAccessFile file = new RandomAccessFile(path, "rw")) {
+            file.seek(file.length() - 1);
+            file.write('X');
+        }
+
+        Memtable memtable = new Memtable();
+        assertEquals(1, WAL.replay(memtable, path).records);
+        assertNull(memtable.get("key2"));
+    }
+
+    @Test
+    public void shouldReplayWalOfTheOriginalFormatWithoutTouchingIt() throws IOException {
+        // Written the way the original WAL did: bare key and value strings, then a torn third record
+        String path = tempDirectory.resolve("wal.log").toString();
+        try (DataOutputStream out = new DataOutputStream(new FileOutputStream(path))) {
+            IOUtils.writeString(out, "key1");
+            IOUtils.writeString(out, "value1");
+            IOUtils.writeString(out, "key2");
+            IOUtils.writeString(out, "<TOMBSTONE>");
+            IOUtils.writeString(out, "key3");
+            out.writeInt(6);
+            out.writeBytes("val");
+        }
+        long length = Files.size(Path.of(path));
+
+        assertTrue(WAL.isUnframed(path));
+        Memtable memtable = new Memtable();
+        WAL.ReplayResult result = WAL.replay(memtable, path);
+        assertTrue(result.unframed);
+        assertEquals(2, result.records);
+        assertEquals("value1", memtable.get("key1"));
+        assertEquals("<TOMBSTONE>", memtable.get("key2"));
+        assertNull(memtable.get("key3"));
+
+        // Appending framed records would make the file unreadable to both decoders
+        assertThrows(IOException.class, () -> new WAL(path));
+        assertEquals(length, Files.size(Path.of(path)));
+    }
+
+    @Test
+    public void shouldRejectAFileThatIsNotAWal() throws IOException {
+        Path path = tempDirectory.resolve("wal.log");
+        Files.writeString(path, "definitely not a WAL");
+        assertThrows(IOException.class, () -> WAL.replay(new Memtable(), path.toString()));
+    }
+
+    @Test
+    public void shouldRecoverFromATornHeader() throws IOException {
+        String path = tempDirectory.resolve("wal.log").toString();
+        new WAL(path).close();
+        assertArrayEquals(WAL.MAGIC, Files.readAllBytes(Path.of(path)));
+
+        Files.write(Path.of(path), Arrays.copyOf(WAL.MAGIC, 3));
+        WAL.ReplayResult result = WAL.replay(new Memtable(), path);
+        assertFalse(result.unframed);
+        assertEquals(0, result.records);
+
+        WAL wal = new WAL(path);
+        wal.writeEntry("key1", "value1");
+        wal.close();
+        Memtable memtable = new Memtable();
+        assertEquals(1, WAL.replay(memtable, path).records);
+        assertEquals("value1", memtable.get("key1"));
+    }
+
+    @Test
+    public void shouldReplayEveryConcurrentWriteExactlyOnce() throws Exception {
+        String path = tempDirectory.resolve("wal.log").toString();
+        WAL wal = new WAL(path);
+        int threads = 8;
+        int writesPerThread = 2000;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<Future<?>> writers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            int thread = t;
+            writers.add(executor.submit(() -> {
+                for (int i = 0; i < writesPerThread; i++) {
+                    // Every tenth value spans blocks, so batches mix small and fragmented records
+                    String value = i % 10 == 0 ? "v".repeat(WAL.BLOCK_SIZE) : "value" + i;
+                    wal.writeEntry(thread + "-" + i, value);
+                }
+                return null;
+            }));
+        }
+        for (Future<?> writer : writers) {
+            writer.get();
+        }
+        executor.shutdown();
+        wal.close();
+
+        Map<String, Integer> replays = new ConcurrentHashMap<>();
+        WAL.ReplayResult result = WAL.replay(path, (key, value) -> replays.merge(key, 1, Integer::sum));
+        assertEquals(threads * writesPerThread, result.records);
+        assertEquals(threads * writesPerThread, replays.size());
+        assertTrue(replays.values().stream().allMatch(count -> count == 1));
+    }
+
+    @Test
+    public void shouldFailWaitingWritersAndLaterWritesAfterAFailedWrite() throws Exception {
+        String path = tempDirectory.resolve("wal.log").toString();
+        InstrumentedChannel channel = new InstrumentedChannel(path);
+        WAL wal = new WAL(path, new DBOptions(), channel);
+        wal.writeEntry("before", "value");
+
+        CountDownLatch release = new CountDownLatch(1);
+        channel.failWrites(release);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        Future<?> leader = executor.submit(() -> {
+            wal.writeEntry("leader", "value");
+            return null;
+        });
+        assertTrue(channel.writeStarted.await(10, TimeUnit.SECONDS));
+
+        // These queue up behind the leader, which is stuck in its write
+        List<Future<?>> followers = new ArrayList<>();
+        List<Thread> followerThreads = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            String key = "follower" + i;
+            followers.add(executor.submit(() -> {
+                synchronized (followerThreads) {
+                    followerThreads.add(Thread.currentThread());
+                }
+                wal.writeEntry(key, "value");
+                return null;
+            }));
+        }
+        waitUntilWaiting(followerThreads, 3);
+        release.countDown();
+
+        assertFailedWith(leader, "Simulated write failure");
+        for (Future<?> follower : followers) {
+            assertFailedWith(follower, "WAL is unusable");
+        }
+        IOException rejected = assertThrows(IOException.class, () -> wal.writeEntry("after", "value"));
+        assertTrue(rejected.getMessage().startsWith("WAL is unusable"));
+        executor.shutdown();
+        wal.close();
+
+        Memtable memtable = new Memtable();
+        assertEquals(1, WAL.replay(memtable, path).records);
+        assertEquals("value", memtable.get("before"));
+    }
+
+    @Test
+    public void shouldFsyncAsEachWriteAsks() throws IOException {
+        String path = tempDirectory.resolve("wal.log").toString();
+        InstrumentedChannel channel = new InstrumentedChannel(path);
+        // Long intervals, so PERIODIC writes are not due for a sync by themselves
+        DBOptions options = new DBOptions().setSyncMode(SyncMode.BUFFERED)
+                .setSyncIntervalMillis(60_000).setSyncIntervalBytes(1L << 30);
+        WAL wal = new WAL(path, options, channel);
+
+        wal.writeEntry("buffered", "value");
+        assertEquals(0, channel.forces.get());
+        wal.writeEntry("fsync", "value", SyncMode.FSYNC);
+        assertEquals(1, channel.forces.get());
+        wal.writeEntry("periodic", "value", SyncMode.PERIODIC);
+        assertEquals(1, channel.forces.get());
+        wal.syncIfDue();
+        assertEquals(1, channel.forces.get());
+
+        // The PERIODIC write is still unsynced, so close syncs it although the default is BUFFERED
+        wal.close();
+        assertEquals(2, channel.forces.get());
+    }
+
+    @Test
+    public void shouldNotFsyncBufferedWritesOnClose() throws IOException {
+        String path = tempDirectory.resolve("wal.log").toString();
+        InstrumentedChannel channel = new InstrumentedChannel(path);
+        WAL wal = new WAL(path, new DBOptions().setSyncMode(SyncMode.FSYNC), channel);
+        wal.writeEntry("fsync", "value");
+        assertEquals(1, channel.forces.get());
+
+        // A per-write BUFFERED override skips the fsync the default would do
+        wal.writeEntry("buffered", "value", SyncMode.BUFFERED);
+        assertEquals(1, channel.forces.get());
+        wal.close();
+        assertEquals(2, channel.forces.get());
+
+        path = tempDirectory.resolve("buffered.log").toString();
+        channel = new InstrumentedChannel(path);
+        wal = new WAL(path, new DBOptions().setSyncMode(SyncMode.BUFFERED), channel);
+        wal.writeEntry("buffered", "value");
+        wal.close();
+        assertEquals(0, channel.forces.get());
+    }
+
+    @Test
+    public void shouldFsyncPeriodicWritesOnceDue() throws IOException {
+        String path = tempDirectory.resolve("wal.log").toString();
+        InstrumentedChannel channel = new InstrumentedChannel(path);
+        DBOptions options = new DBOptions().setSyncMode(SyncMode.PERIODIC)
+                .setSyncIntervalMillis(60_000).setSyncIntervalBytes(100);
+        WAL wal = new WAL(path, options, channel);
+
+        wal.writeEntry("key1", "value");
+        assertEquals(0, channel.forces.get());
+        // Crosses syncIntervalBytes, so the next periodic write syncs
+        wal.writeEntry("key2", "v".repeat(100));
+        wal.writeEntry("key3", "value");
+        assertEquals(1, channel.forces.get());
+        wal.writeEntry("key4", "value");
+        assertEquals(1, channel.forces.get());
+        wal.close();
+        assertEquals(2, channel.forces.get());
+    }
+
+    @Test
+    public void shouldRejectWritesAfterAFailedPeriodicSync() throws IOException {
+        String path = tempDirectory.resolve("wal.log").toString();
+        InstrumentedChannel channel = new InstrumentedChannel(path);
+        DBOptions options = new DBOptions().setSyncMode(SyncMode.PERIODIC).setSyncIntervalBytes(1);
+        WAL wal = new WAL(path, options, channel);
+        wal.writeEntry("key1", "value", SyncMode.BUFFERED);
+
+        channel.failForces = true;
+        assertThrows(IOException.class, wal::syncIfDue);
+        IOException rejected = assertThrows(IOException.class, () -> wal.writeEntry("key2", "value"));
+        assertTrue(rejected.getMessage().startsWith("WAL is unusable"));
+        wal.close();
+    }
+
+    private static void waitUntilWaiting(List<Thread> threads, int count) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (System.nanoTime() < deadline) {
+            synchronized (threads) {
+                if (threads.size() == count && threads.stream().allMatch(t -> t.getState() == Thread.State.WAITING)) {
+                    return;
+                }
+            }
+            Thread.sleep(1);
+        }
+        fail("Writers did not queue behind the leader");
+    }
+
+    private static void assertFailedWith(Future<?> write, String messagePrefix) throws InterruptedException {
+        try {
+            write.get();
+            fail("Write should have failed");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IOException, String.valueOf(e.getCause()));
+            assertTrue(e.getCause().getMessage().startsWith(messagePrefix), e.getCause().getMessage());
+        }
+    }
+
+    // Appends to the real file, counting fsyncs. Once failWrites is called, the next write waits for the latch
+    // and then fails; with failForces set, fsyncs fail.
+    static final class InstrumentedChannel extends FileChannel {
+        private final FileChannel file;
+        final AtomicInteger forces = new AtomicInteger();
+        final CountDownLatch writeStarted = new CountDownLatch(1);
+        private volatile CountDownLatch failAfter;
+        volatile boolean failForces;
+
+        InstrumentedChannel(String path) throws IOException {
+            this.file = FileChannel.open(Path.of(path),
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        }
+
+        void failWrites(CountDownLatch release) {
+            this.failAfter = release;
+        }
+
+        @Override
+        public int write(ByteBuffer src) throws IOException {
+            CountDownLatch release = failAfter;
+            if (release != null) {
+                writeStarted.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                throw new IOException("Simulated write failure");
+            }
+            return file.write(src);
+        }
+
+        @Override
+        public void force(boolean metaData) throws IOException {
+            if (failForces) {
+                throw new IOException("Simulated fsync failure");
+            }
+            forces.incrementAndGet();
+            file.force(metaData);
+        }
+
+        @Override
+        public long size() throws IOException {
+            return file.size();
+        }
+
+        @Override
+        public int read(ByteBuffer dst) throws IOException {
+            return file.read(dst);
+        }
+
+        @Override
+        public long read(ByteBuffer[] dsts, int offset, int length) throws IOException {
+            return file.read(dsts, offset, length);
+        }
+
+        @Override
+        public long write(ByteBuffer[] srcs, int offset, int length) throws IOException {
+            return file.write(srcs, offset, length);
+        }
+
+        @Override
+        public long position() throws IOException {
+            return file.position();
+        }
+
+        @Override
+        public FileChannel position(long newPosition) throws IOException {
+            file.position(newPosition);
+            return this;
+        }
+
+        @Override
+        public FileChannel truncate(long size) throws IOException {
+            file.truncate(size);
+            return this;
+        }
+
+        @Override
+        public long transferTo(long position, long count, WritableByteChannel target) throws IOException {
+            return file.transferTo(position, count, target);
+        }
+
+        @Override
+        public long transferFrom(ReadableByteChannel src, long position, long count) throws IOException {
+            return file.transferFrom(src, position, count);
+        }
+
+        @Override
+        public int read(ByteBuffer dst, long position) throws IOException {
+            return file.read(dst, position);
+        }
+
+        @Override
+        public int write(ByteBuffer src, long position) throws IOException {
+            return file.write(src, position);
+        }
+
+        @Override
+        public MappedByteBuffer map(MapMode mode, long position, long size) throws IOException {
+            return file.map(mode, position, size);
+        }
+
+        @Override
+        public FileLock lock(long position, long size, boolean shared) throws IOException {
+            return file.lock(position, size, shared);
+        }
+
+        @Override
+        public FileLock tryLock(long position, long size, boolean shared) throws IOException {
+            return file.tryLock(position, size, shared);
+        }
+
+        @Override
+        protected void implCloseChannel() throws IOException {
+            file.close();
+        }
+    }
+}
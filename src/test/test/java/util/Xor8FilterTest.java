@@ -0,0 +1,44 @@
+package util;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class Xor8FilterTest {
+
+    @Test
+    public void shouldContainEveryKeyAfterRoundTrip() throws IOException {
+        for (int count : new int[]{1, 2, 100, 50000}) {
+            long[] hashes = new long[count];
+            for (int i = 0; i < count; i++) {
+                hashes[i] = KeyHash.hash("key" + i);
+            }
+            KeyFilter filter = FilterType.XOR8.build(hashes, count, 10);
+
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            filter.writeTo(out);
+            KeyFilter restored = FilterType.XOR8.read(ByteBuffer.wrap(out.toByteArray()));
+
+            for (int i = 0; i < count; i++) {
+                assertTrue(restored.mightContain("key" + i), "key" + i + " of " + count);
+            }
+        }
+    }
+
+    @Test
+    public void shouldBuildOverDuplicateHashes() {
+        long[] hashes = {KeyHash.hash("a"), KeyHash.hash("b"), KeyHash.hash("a")};
+        KeyFilter filter = FilterType.XOR8.build(hashes, hashes.length, 10);
+        assertTrue(filter.mightContain("a"));
+        assertTrue(filter.mightContain("b"));
+    }
+
+    @Test
+    public void shouldRejectCorruptFilter() {
+        assertThrows(IOException.class, () -> FilterType.XOR8.read(ByteBuffer.wrap(new byte[]{0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 2, 1})));
+    }
+}